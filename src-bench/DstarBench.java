@@ -0,0 +1,377 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the engine and its drawing: step() of a live and of an idle field, getColorMap(),
+ * getDirectionMap() and an offscreen MapCanvas paint. A grid has a number of fields, the first
+ * and its channels, and the grids benchmark steps as many separate grids of one field instead.
+ * Every combination of grid size, connection set, obstacle probability, thread count and field
+ * count is measured in a number of timed iterations after a warmup, and printed as one line of
+ * average and deviation per operation. Run with -help for the parameters.
+ */
+public class DstarBench
+{
+
+   private final static String[] BENCHMARKS =
+   {
+      "step", "idle", "grids", "color", "direction", "paint"
+   };
+   // parameters, each a list of values to combine
+   private String[] benchmarks = BENCHMARKS;
+   private int[] sizes =
+   {
+      64, 256, 1024, 4096, 8192
+   };
+   private String[] connections =
+   {
+      "dir4", "dir4diag", "dir8"
+   };
+   private float[] obstacles =
+   {
+      0, .3f
+   };
+   private int[] threads =
+   {
+      1, Runtime.getRuntime().availableProcessors()
+   };
+   private int[] fields =
+   {
+      1, 4
+   };
+   // size of the offscreen paint image
+   private int paintSize = 800;
+   // time of the warmup and of each iteration in milliseconds
+   private long warmup = 1000;
+   private long time = 1000;
+   private int iterations = 5;
+   // results are folded in here, so no call can be optimized away
+   private long sink = 0;
+
+   public static void main(String[] args)
+   {
+      DstarBench bench = new DstarBench();
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         bench.set(args[i], args[i + 1]);
+      }
+      if (args.length % 2 != 0)
+      {
+         System.out.println("usage: DstarBench [-bench step,idle,grids,color,direction,paint] [-size 64,...,8192]"
+                 + " [-connection dir4,dir4diag,dir8] [-obstacle 0,.3] [-threads 1,n] [-fields 1,4]"
+                 + " [-paint 800] [-warmup ms] [-time ms] [-iterations 5]");
+         return;
+      }
+      bench.run();
+   }
+
+   private void set(String name, String value)
+   {
+      String[] values = value.split(",");
+      if (name.equals("-bench"))
+      {
+         benchmarks = values;
+      }
+      else if (name.equals("-size"))
+      {
+         sizes = parseInts(values);
+      }
+      else if (name.equals("-connection"))
+      {
+         connections = values;
+      }
+      else if (name.equals("-obstacle"))
+      {
+         obstacles = new float[values.length];
+         for (int i = 0; i < values.length; i++)
+         {
+            obstacles[i] = Float.parseFloat(values[i]);
+         }
+      }
+      else if (name.equals("-threads"))
+      {
+         threads = parseInts(values);
+      }
+      else if (name.equals("-fields"))
+      {
+         fields = parseInts(values);
+      }
+      else if (name.equals("-paint"))
+      {
+         paintSize = Integer.parseInt(value);
+      }
+      else if (name.equals("-warmup"))
+      {
+         warmup = Long.parseLong(value);
+      }
+      else if (name.equals("-time"))
+      {
+         time = Long.parseLong(value);
+      }
+      else if (name.equals("-iterations"))
+      {
+         iterations = Integer.parseInt(value);
+      }
+      else
+      {
+         throw new IllegalArgumentException("unknown parameter " + name);
+      }
+   }
+
+   private static int[] parseInts(String[] values)
+   {
+      int[] result = new int[values.length];
+      for (int i = 0; i < values.length; i++)
+      {
+         result[i] = Integer.parseInt(values[i]);
+      }
+      return result;
+   }
+
+   private static Position[] connection(String name)
+   {
+      if (name.equals("dir4"))
+      {
+         return DstarGrid.dir4;
+      }
+      if (name.equals("dir4diag"))
+      {
+         return DstarGrid.dir4diag;
+      }
+      if (name.equals("dir8"))
+      {
+         return DstarGrid.dir8;
+      }
+      throw new IllegalArgumentException("unknown connection " + name);
+   }
+
+   private void run()
+   {
+      System.out.println(String.format("%-10s %6s %-10s %8s %7s %6s %14s %12s", "benchmark", "size", "connection", "obstacle", "threads", "fields", "ms/op", "+-"));
+      for (String benchmark : benchmarks)
+      {
+         for (int size : sizes)
+         {
+            for (String connection : connections)
+            {
+               for (float obstacle : obstacles)
+               {
+                  for (int thread : threads)
+                  {
+                     for (int field : fields)
+                     {
+                        run(benchmark, size, connection, obstacle, thread, field);
+                     }
+                  }
+               }
+            }
+         }
+      }
+      // print the sink, so its value is used
+      System.out.println("# " + sink);
+   }
+
+   private void run(String benchmark, int size, String connection, float obstacle, int thread, int field)
+   {
+      DstarGrid[] grids = new DstarGrid[benchmark.equals("grids") ? field : 1];
+      for (int i = 0; i < grids.length; i++)
+      {
+         grids[i] = grid(size, connection, obstacle, thread, benchmark.equals("grids") ? 1 : field);
+      }
+
+      Operation operation = operation(benchmark, grids);
+
+      measure(operation, warmup);
+      List<Double> results = new ArrayList<Double>();
+      for (int i = 0; i < iterations; i++)
+      {
+         results.add(measure(operation, time));
+      }
+
+      double mean = 0;
+      for (double result : results)
+      {
+         mean += result / results.size();
+      }
+      double deviation = 0;
+      for (double result : results)
+      {
+         deviation += (result - mean) * (result - mean) / results.size();
+      }
+      System.out.println(String.format("%-10s %6d %-10s %8.2f %7d %6d %14.4f %12.4f", benchmark, size, connection, obstacle, thread, field, mean, Math.sqrt(deviation)));
+      for (DstarGrid grid : grids)
+      {
+         grid.setParallelism(1);
+      }
+   }
+
+   // a grid with a number of fields, each with a target that walks from the middle
+   private static DstarGrid grid(int size, String connection, float obstacle, int thread, int fields)
+   {
+      DstarGrid grid = new DstarGrid();
+      grid.setRandom(new RandomSource(1));
+      grid.setSize(size, size);
+      grid.fadeTime = size;
+      grid.flowTime = size;
+      // add the targets first, like DstarFrame, so randomize() clears the obstacles around them
+      for (int field = 0; field < fields; field++)
+      {
+         int channel = field == 0 ? 0 : grid.addChannel("field" + field, size, size);
+         grid.setAttractor(grid.addTarget(channel, size / 2, size / 2), size / 4, size / 4);
+      }
+      grid.randomize(obstacle);
+      grid.setConnection(connection(connection));
+      grid.setParallelism(thread);
+      // fill the fields a bit, so the maps have something to read
+      grid.run(Math.min(size, 64));
+      return grid;
+   }
+
+   // Turn the targets around at the corners they walk between, so the fields never converge and
+   // every step sweeps.
+   private static void walk(DstarGrid grid)
+   {
+      int near = grid.getWidth() / 4;
+      int far = grid.getWidth() - 1 - near;
+      Position[] targets = grid.getTargets();
+      for (int i = 0; i < targets.length; i++)
+      {
+         if (targets[i].x == near)
+         {
+            grid.setAttractor(i, far, far);
+         }
+         else if (targets[i].x == far)
+         {
+            grid.setAttractor(i, near, near);
+         }
+      }
+   }
+
+   // repeat an operation for about the given time, returns milliseconds per operation
+   private double measure(Operation operation, long millis)
+   {
+      long start = System.nanoTime();
+      long end = start + millis * 1000000;
+      long count = 0;
+      long now = start;
+      do
+      {
+         sink += operation.run();
+         count++;
+         now = System.nanoTime();
+      } while (now < end);
+      return (now - start) / 1e6 / count;
+   }
+
+   private Operation operation(String benchmark, final DstarGrid[] grids)
+   {
+      final DstarGrid grid = grids[0];
+      if (benchmark.equals("step") || benchmark.equals("grids"))
+      {
+         return new Operation()
+         {
+
+            public long run()
+            {
+               long moves = 0;
+               for (DstarGrid grid : grids)
+               {
+                  walk(grid);
+                  grid.step();
+                  moves += grid.getMoves();
+               }
+               return moves;
+            }
+         };
+      }
+      if (benchmark.equals("idle"))
+      {
+         // the fast path of a converged field, which only puts the targets again
+         for (int i = 0; i < 8 * grid.getWidth() && !grid.isIdle(); i++)
+         {
+            grid.step();
+         }
+         if (!grid.isIdle())
+         {
+            System.out.println("# the field did not converge, idle measures live steps");
+         }
+         return new Operation()
+         {
+
+            public long run()
+            {
+               grid.step();
+               return grid.getMoves();
+            }
+         };
+      }
+      if (benchmark.equals("color"))
+      {
+         return new Operation()
+         {
+
+            public long run()
+            {
+               return grid.getColorMap()[0][0].getRGB();
+            }
+         };
+      }
+      if (benchmark.equals("direction"))
+      {
+         return new Operation()
+         {
+
+            public long run()
+            {
+               return (long) grid.getDirectionMap()[0][0];
+            }
+         };
+      }
+      if (benchmark.equals("paint"))
+      {
+         final MapCanvas canvas = new MapCanvas(grid);
+         final BufferedImage image = new BufferedImage(paintSize, paintSize, BufferedImage.TYPE_INT_RGB);
+         final Graphics graphics = image.createGraphics();
+         return new Operation()
+         {
+
+            public long run()
+            {
+               canvas.paint(graphics, paintSize, paintSize);
+               return image.getRGB(paintSize / 2, paintSize / 2);
+            }
+         };
+      }
+      throw new IllegalArgumentException("unknown benchmark " + benchmark);
+   }
+
+   // a benchmarked operation, returning any value that depends on its work
+   private interface Operation
+   {
+
+      long run();
+   }
+}
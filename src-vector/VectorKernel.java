@@ -0,0 +1,113 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Row kernel on the incubating Vector API, updating as many tiles at once as fit in a vector. The
+ * neighbors of a run of tiles are a run as well, so all loads are plain vector loads. Instead of
+ * trying directions in the order of the offset, all directions are tried with their rank in that
+ * order, which breaks ties the same way. Needs --add-modules jdk.incubator.vector.
+ */
+class VectorKernel implements RowKernel
+{
+
+   private final static VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+   private final static VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+   // the direction offsets of a vector of tiles, for each thread that sweeps
+   private final ThreadLocal<int[]> pickBuffer = new ThreadLocal<int[]>();
+
+   public void sweep(DstarGrid grid, int fromY, int toY, int[] state, float[] time, float[] speed, float[] cost, int[] outState, float[] outTime)
+   {
+      int[] offsets = grid.getOffsets();
+      float[] halflength = grid.getHalfLengths();
+      int count = offsets.length;
+      long moves = grid.getMoves();
+      RandomSource random = grid.getRandom();
+      float flowTime = grid.flowTime;
+      float fadeTime = grid.fadeTime;
+      int width = grid.getWidth();
+      int lanes = INTS.length();
+      int[] pick = pickBuffer.get();
+      if (pick == null)
+      {
+         pick = new int[lanes];
+         pickBuffer.set(pick);
+      }
+
+      for (int y = fromY; y < toY; y++)
+      {
+         int index = grid.index(0, y);
+         int end = index + width;
+         for (int bound = index + INTS.loopBound(width); index < bound; index += lanes)
+         {
+            IntVector tileState = IntVector.fromArray(INTS, state, index);
+            FloatVector tileCost = FloatVector.fromArray(FLOATS, cost, index);
+            VectorMask<Integer> skip = FloatVector.fromArray(FLOATS, speed, index).compare(VectorOperators.LE, 0).cast(INTS).or(tileState.compare(VectorOperators.GT, count));
+            VectorMask<Integer> empty = tileState.compare(VectorOperators.EQ, 0);
+
+            // offsets, random for empty tiles
+            for (int l = 0; l < lanes; l++)
+            {
+               pick[l] = state[index + l] == 0 ? random.nextInt(moves, index + l, count) : state[index + l] - 1;
+            }
+            IntVector offset = IntVector.fromArray(INTS, pick, 0);
+
+            // live tiles start aged and win all ties, empty tiles take any candidate
+            FloatVector bestTime = FloatVector.fromArray(FLOATS, time, index).add(tileCost).blend(Float.POSITIVE_INFINITY, empty.cast(FLOATS));
+            IntVector bestState = tileState;
+            IntVector bestRank = IntVector.broadcast(INTS, -1).blend(count, empty);
+
+            for (int i = 0; i < count; i++)
+            {
+               int other = index + offsets[i];
+               FloatVector otherTime = FloatVector.fromArray(FLOATS, time, other);
+               VectorMask<Float> candidate = IntVector.fromArray(INTS, state, other).compare(VectorOperators.NE, 0).cast(FLOATS).and(otherTime.compare(VectorOperators.LE, flowTime));
+               FloatVector newtime = otherTime.add(FloatVector.fromArray(FLOATS, cost, other).add(tileCost).mul(halflength[i]));
+               IntVector rank = offset.neg().add(i);
+               rank = rank.blend(rank.add(count), rank.compare(VectorOperators.LT, 0));
+               VectorMask<Float> better = newtime.compare(VectorOperators.LT, bestTime).or(newtime.compare(VectorOperators.EQ, bestTime).and(rank.compare(VectorOperators.LT, bestRank).cast(FLOATS))).and(candidate);
+               VectorMask<Integer> betterInts = better.cast(INTS);
+               bestTime = bestTime.blend(newtime, better);
+               bestState = bestState.blend(i + 1, betterInts);
+               bestRank = bestRank.blend(rank, betterInts);
+            }
+
+            // empty tiles without candidate stay at 0, late tiles fade, skipped tiles are cleared
+            bestTime = bestTime.blend(0, bestState.compare(VectorOperators.EQ, 0).cast(FLOATS));
+            bestState = bestState.blend(0, bestTime.compare(VectorOperators.GT, fadeTime).cast(INTS));
+            bestState.blend(0, skip).intoArray(outState, index);
+            bestTime.blend(0, skip.cast(FLOATS)).intoArray(outTime, index);
+         }
+
+         // the rest of the row
+         for (; index < end; index++)
+         {
+            grid.update(index, index, state, time, speed, cost, offsets, outState, outTime);
+         }
+      }
+   }
+}
@@ -0,0 +1,634 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * Directions over long distances for a DstarGrid, from a coarse grid of square clusters of tiles.
+ * The tiles with speed of a cluster fall apart in components, the tiles connected within the
+ * cluster. These components are the nodes of the coarse grid, and a node connects to a node of a
+ * neighboring cluster when a tile of one connects to a tile of the other. The coarse grid is
+ * solved from the nodes of the targets at once, so each node knows the next node towards the
+ * nearest target. Within each cluster the directions are then refined: every tile heads for the
+ * nearest crossing into the next node of its component, or for the targets of its component.
+ * A coarse field does not change once built. Changes of speeds or targets build a new one, which
+ * shares what did not change.
+ */
+class CoarseField
+{
+
+   // the largest cluster size, so a component fits in a short
+   final static int MAX_CLUSTER_SIZE = 128;
+   // the next node of the nodes of targets
+   private final static int SELF = -2;
+   // A node keeps the next node of the last field while that is at most this part slower than the
+   // best, so equal ways do not make clusters change.
+   private final static float KEEP_NEXT = 1e-4f;
+   private final int clusterSize;
+   private final int width;
+   private final int height;
+   private final int stride;
+   // number of clusters in a row and in a column
+   private final int columns;
+   private final int rows;
+   private final Position[] dir;
+   private final float[] halflength;
+   // index offset of each direction in the padded tile arrays
+   private final int[] offsets;
+   // per cluster the component of each tile, row by row and -1 without speed, the mean cost of
+   // the tiles of each component and the first node, the nodes being the components in order
+   private short[][] component;
+   private float[][] componentCost;
+   private int[] firstNode;
+   // the cluster of each node
+   private int[] nodeCluster;
+   // the crossings of each cluster into its neighbors, see cross()
+   private long[][] crossings;
+   // the nodes that head into each node, edgeStart[node] until edgeStart[node + 1], and the time
+   private int[] edgeStart;
+   private int[] edgeNode;
+   private float[] edgeTime;
+   // sorted tiles of the targets the coarse grid was solved for
+   private int[] targets;
+   // For each node the time to the nearest target and the next node towards it, as the index of
+   // its cluster in the 3 by 3 neighborhood times 65536 plus its component there. SELF for a node
+   // of a target and -1 when no target is reached.
+   private float[] time;
+   private int[] next;
+   // the refined states of the tiles of each cluster, row by row, 0 for tiles without direction
+   private byte[][] local;
+
+   // builds the coarse grid of padded speed and cost arrays, see DstarGrid, and solves it
+   public CoarseField(int width, int height, int clusterSize, Position[] dir, float[] halflength, float[] speed, float[] cost, int[] targets)
+   {
+      this.width = width;
+      this.height = height;
+      this.clusterSize = clusterSize;
+      this.dir = dir;
+      this.halflength = halflength;
+      stride = width + 2;
+      columns = (width + clusterSize - 1) / clusterSize;
+      rows = (height + clusterSize - 1) / clusterSize;
+      offsets = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         offsets[i] = dir[i].y * stride + dir[i].x;
+      }
+      component = new short[columns * rows][];
+      componentCost = new float[columns * rows][];
+      crossings = new long[columns * rows][];
+      label(speed, cost, 0, 0, columns, rows);
+      cross(speed, 0, 0, columns, rows);
+      connect();
+      this.targets = sorted(targets);
+      local = new byte[columns * rows][];
+      solve(null);
+      refine(null, speed, cost, null);
+   }
+
+   // a copy of another coarse field, to build on
+   private CoarseField(CoarseField field)
+   {
+      width = field.width;
+      height = field.height;
+      clusterSize = field.clusterSize;
+      dir = field.dir;
+      halflength = field.halflength;
+      stride = field.stride;
+      columns = field.columns;
+      rows = field.rows;
+      offsets = field.offsets;
+      component = field.component;
+      componentCost = field.componentCost;
+      crossings = field.crossings;
+      firstNode = field.firstNode;
+      nodeCluster = field.nodeCluster;
+      edgeStart = field.edgeStart;
+      edgeNode = field.edgeNode;
+      edgeTime = field.edgeTime;
+      targets = field.targets;
+      time = field.time;
+      next = field.next;
+      local = field.local.clone();
+   }
+
+   // This coarse field after the speeds of the tiles fromX, fromY until toX, toY changed, solved
+   // for the given targets. Only the clusters of these tiles are labeled again.
+   public CoarseField update(float[] speed, float[] cost, int fromX, int fromY, int toX, int toY, int[] targets)
+   {
+      int fromColumn = fromX / clusterSize;
+      int fromRow = fromY / clusterSize;
+      int toColumn = (toX - 1) / clusterSize + 1;
+      int toRow = (toY - 1) / clusterSize + 1;
+      CoarseField field = new CoarseField(this);
+      field.component = component.clone();
+      field.componentCost = componentCost.clone();
+      field.crossings = crossings.clone();
+      field.label(speed, cost, fromColumn, fromRow, toColumn, toRow);
+      // the crossings into the labeled clusters changed for their neighbors as well
+      fromColumn = Math.max(0, fromColumn - 1);
+      fromRow = Math.max(0, fromRow - 1);
+      toColumn = Math.min(columns, toColumn + 1);
+      toRow = Math.min(rows, toRow + 1);
+      field.cross(speed, fromColumn, fromRow, toColumn, toRow);
+      field.connect();
+      field.targets = sorted(targets);
+      field.solve(this);
+
+      boolean[] changed = new boolean[columns * rows];
+      for (int cy = fromRow; cy < toRow; cy++)
+      {
+         Arrays.fill(changed, cy * columns + fromColumn, cy * columns + toColumn, true);
+      }
+      field.refine(this, speed, cost, changed);
+      return field;
+   }
+
+   // This coarse field solved for other targets, with the same speeds. When the targets are at the
+   // same nodes, only the clusters of the targets change.
+   public CoarseField retarget(float[] speed, float[] cost, int[] targets)
+   {
+      targets = sorted(targets);
+      if (Arrays.equals(targets, this.targets))
+      {
+         return this;
+      }
+      CoarseField field = new CoarseField(this);
+      field.targets = targets;
+      if (!Arrays.equals(nodes(targets), nodes(this.targets)))
+      {
+         field.solve(this);
+      }
+      field.refine(this, speed, cost, new boolean[columns * rows]);
+      return field;
+   }
+
+   // Whether the tiles from fromX, fromY until toX, toY have the directions of another coarse field
+   // of the same grid. Refined clusters that did not change are shared, so only these are compared.
+   public boolean sameDirections(CoarseField field, int fromX, int fromY, int toX, int toY)
+   {
+      for (int row = fromY / clusterSize; row <= (toY - 1) / clusterSize; row++)
+      {
+         for (int column = fromX / clusterSize; column <= (toX - 1) / clusterSize; column++)
+         {
+            if (local[row * columns + column] != field.local[row * columns + column])
+            {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   // the refined direction of a tile as a state of DstarGrid, 0 when it has none
+   public int direction(int x, int y)
+   {
+      byte[] states = local[(y / clusterSize) * columns + x / clusterSize];
+      return states == null ? 0 : states[(y % clusterSize) * clusterSize + x % clusterSize];
+   }
+
+   // find the components of the clusters fromX, fromY until toX, toY and their costs
+   private void label(float[] speed, float[] cost, int fromX, int fromY, int toX, int toY)
+   {
+      int[] stack = new int[clusterSize * clusterSize];
+      for (int cy = fromY; cy < toY; cy++)
+      {
+         for (int cx = fromX; cx < toX; cx++)
+         {
+            int cluster = cy * columns + cx;
+            int left = cx * clusterSize;
+            int top = cy * clusterSize;
+            int right = Math.min(width, left + clusterSize);
+            int bottom = Math.min(height, top + clusterSize);
+            short[] labels = new short[clusterSize * clusterSize];
+            Arrays.fill(labels, (short) -1);
+            double[] sum = new double[4];
+            int[] count = new int[4];
+            short components = 0;
+            for (int y = top; y < bottom; y++)
+            {
+               for (int x = left; x < right; x++)
+               {
+                  int at = (y - top) * clusterSize + x - left;
+                  if (labels[at] >= 0 || speed[(y + 1) * stride + x + 1] <= 0)
+                  {
+                     continue;
+                  }
+                  if (components == sum.length)
+                  {
+                     sum = Arrays.copyOf(sum, 2 * components);
+                     count = Arrays.copyOf(count, 2 * components);
+                  }
+
+                  // flood the component within the cluster
+                  int size = 0;
+                  stack[size++] = at;
+                  labels[at] = components;
+                  while (size > 0)
+                  {
+                     int tile = stack[--size];
+                     int tileX = left + tile % clusterSize;
+                     int tileY = top + tile / clusterSize;
+                     int index = (tileY + 1) * stride + tileX + 1;
+                     sum[components] += cost[index];
+                     count[components]++;
+                     for (int i = 0; i < dir.length; i++)
+                     {
+                        int otherX = tileX + dir[i].x;
+                        int otherY = tileY + dir[i].y;
+                        int otherAt = (otherY - top) * clusterSize + otherX - left;
+                        if (otherX >= left && otherX < right && otherY >= top && otherY < bottom && labels[otherAt] < 0 && speed[index + offsets[i]] > 0)
+                        {
+                           labels[otherAt] = components;
+                           stack[size++] = otherAt;
+                        }
+                     }
+                  }
+                  components++;
+               }
+            }
+            component[cluster] = labels;
+            componentCost[cluster] = new float[components];
+            for (int i = 0; i < components; i++)
+            {
+               componentCost[cluster][i] = (float) (sum[i] / count[i]);
+            }
+         }
+      }
+   }
+
+   // Find the crossings of the clusters fromX, fromY until toX, toY from their border tiles into
+   // their neighbors: each once, sorted, as the component in the high 32 bits and the neighborhood
+   // index of the neighbor times 65536 plus the component there in the low 32 bits.
+   private void cross(float[] speed, int fromX, int fromY, int toX, int toY)
+   {
+      long[] pairs = new long[16];
+      for (int cy = fromY; cy < toY; cy++)
+      {
+         for (int cx = fromX; cx < toX; cx++)
+         {
+            int cluster = cy * columns + cx;
+            int left = cx * clusterSize;
+            int top = cy * clusterSize;
+            int right = Math.min(width, left + clusterSize);
+            int bottom = Math.min(height, top + clusterSize);
+            short[] labels = component[cluster];
+            int count = 0;
+            for (int y = top; y < bottom; y++)
+            {
+               // all tiles of the first and last row, the first and last tile of the others
+               int step = y == top || y == bottom - 1 ? 1 : Math.max(1, right - 1 - left);
+               for (int x = left; x < right; x += step)
+               {
+                  int label = labels[(y - top) * clusterSize + x - left];
+                  if (label < 0)
+                  {
+                     continue;
+                  }
+                  for (int i = 0; i < dir.length; i++)
+                  {
+                     int otherX = x + dir[i].x;
+                     int otherY = y + dir[i].y;
+                     // ghost tiles have no speed
+                     if ((otherX >= left && otherX < right && otherY >= top && otherY < bottom) || speed[(y + 1) * stride + x + 1 + offsets[i]] <= 0)
+                     {
+                        continue;
+                     }
+                     int neighbor = (otherY < top ? 0 : otherY < bottom ? 3 : 6) + (otherX < left ? 0 : otherX < right ? 1 : 2);
+                     int otherCluster = cluster + (neighbor / 3 - 1) * columns + neighbor % 3 - 1;
+                     int otherLabel = component[otherCluster][(otherY % clusterSize) * clusterSize + otherX % clusterSize];
+                     if (count == pairs.length)
+                     {
+                        pairs = Arrays.copyOf(pairs, 2 * count);
+                     }
+                     pairs[count++] = (long) label << 32 | neighbor << 16 | otherLabel;
+                  }
+               }
+            }
+            Arrays.sort(pairs, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++)
+            {
+               if (unique == 0 || pairs[i] != pairs[unique - 1])
+               {
+                  pairs[unique++] = pairs[i];
+               }
+            }
+            crossings[cluster] = Arrays.copyOf(pairs, unique);
+         }
+      }
+   }
+
+   // number the nodes and collect the nodes that head into each node from the crossings
+   private void connect()
+   {
+      firstNode = new int[component.length + 1];
+      for (int cluster = 0; cluster < component.length; cluster++)
+      {
+         firstNode[cluster + 1] = firstNode[cluster] + componentCost[cluster].length;
+      }
+      int nodes = firstNode[component.length];
+      nodeCluster = new int[nodes];
+      for (int cluster = 0; cluster < component.length; cluster++)
+      {
+         Arrays.fill(nodeCluster, firstNode[cluster], firstNode[cluster + 1], cluster);
+      }
+
+      edgeStart = new int[nodes + 2];
+      for (int cluster = 0; cluster < component.length; cluster++)
+      {
+         for (int i = 0; i < crossings[cluster].length; i++)
+         {
+            edgeStart[crossed(cluster, crossings[cluster][i]) + 2]++;
+         }
+      }
+      for (int node = 0; node < nodes; node++)
+      {
+         edgeStart[node + 2] += edgeStart[node + 1];
+      }
+      edgeNode = new int[edgeStart[nodes + 1]];
+      edgeTime = new float[edgeNode.length];
+      for (int cluster = 0; cluster < component.length; cluster++)
+      {
+         for (int i = 0; i < crossings[cluster].length; i++)
+         {
+            long crossing = crossings[cluster][i];
+            int node = firstNode[cluster] + (int) (crossing >>> 32);
+            int other = crossed(cluster, crossing);
+            int neighbor = (int) crossing >>> 16;
+            // the time between the middles of the clusters, at the mean costs of the components
+            float length = neighbor % 2 == 0 ? 1.4142135f : 1f;
+            int edge = edgeStart[other + 1]++;
+            edgeNode[edge] = node;
+            edgeTime[edge] = length * clusterSize * .5f * (cost(node, cluster) + cost(other, nodeCluster[other]));
+         }
+      }
+      edgeStart = Arrays.copyOf(edgeStart, nodes + 1);
+   }
+
+   // the node a crossing of a cluster crosses into
+   private int crossed(int cluster, long crossing)
+   {
+      int neighbor = (int) crossing >>> 16;
+      return firstNode[cluster + (neighbor / 3 - 1) * columns + neighbor % 3 - 1] + ((int) crossing & 0xffff);
+   }
+
+   // Dijkstra from the nodes of the targets over the connected nodes, keeping the next nodes of
+   // the last field if any
+   private void solve(CoarseField last)
+   {
+      time = new float[nodeCluster.length];
+      next = new int[nodeCluster.length];
+      Arrays.fill(time, Float.POSITIVE_INFINITY);
+      Arrays.fill(next, -1);
+      int[] lastNext = new int[nodeCluster.length];
+      Arrays.fill(lastNext, -1);
+      for (int cluster = 0; last != null && cluster < component.length; cluster++)
+      {
+         int count = firstNode[cluster + 1] - firstNode[cluster];
+         if (count == last.firstNode[cluster + 1] - last.firstNode[cluster])
+         {
+            System.arraycopy(last.next, last.firstNode[cluster], lastNext, firstNode[cluster], count);
+         }
+      }
+      boolean[] done = new boolean[nodeCluster.length];
+      IndexHeap heap = new IndexHeap(time.length);
+      for (int i = 0; i < targets.length; i++)
+      {
+         int node = node(targets[i] % stride - 1, targets[i] / stride - 1);
+         if (node >= 0 && next[node] != SELF)
+         {
+            time[node] = 0;
+            next[node] = SELF;
+            heap.push(node, 0);
+         }
+      }
+      while (!heap.isEmpty())
+      {
+         int node = heap.pop();
+         int cluster = nodeCluster[node];
+         done[node] = true;
+         for (int edge = edgeStart[node]; edge < edgeStart[node + 1]; edge++)
+         {
+            int other = edgeNode[edge];
+            if (done[other])
+            {
+               continue;
+            }
+            // the neighborhood index of this cluster from the other
+            int otherCluster = nodeCluster[other];
+            int neighbor = (cluster / columns - otherCluster / columns + 1) * 3 + cluster % columns - otherCluster % columns + 1;
+            int newNext = neighbor << 16 | (node - firstNode[cluster]);
+            float newTime = time[node] + edgeTime[edge];
+            float keep = KEEP_NEXT * newTime;
+            if (newNext == lastNext[other] ? newTime <= time[other] + keep : newTime < time[other] - (next[other] == lastNext[other] ? keep : 0))
+            {
+               time[other] = newTime;
+               next[other] = newNext;
+               heap.push(other, newTime);
+            }
+         }
+      }
+   }
+
+   // Refine the clusters that are marked changed, that have targets now or in the last field, or
+   // whose nodes head for other nodes than in the last field. Without a last field, all are.
+   private void refine(CoarseField last, float[] speed, float[] cost, boolean[] changed)
+   {
+      if (last != null)
+      {
+         for (int i = 0; i < targets.length; i++)
+         {
+            changed[tileCluster(targets[i])] = true;
+         }
+         for (int i = 0; i < last.targets.length; i++)
+         {
+            changed[tileCluster(last.targets[i])] = true;
+         }
+      }
+      IndexHeap heap = new IndexHeap(clusterSize * clusterSize);
+      float[] tileTime = new float[clusterSize * clusterSize];
+      for (int cluster = 0; cluster < local.length; cluster++)
+      {
+         if (last == null || changed[cluster] || !sameNext(last, cluster))
+         {
+            local[cluster] = refine(cluster, speed, cost, heap, tileTime);
+         }
+      }
+   }
+
+   // whether the nodes of a cluster with the same components head for the same nodes as before
+   private boolean sameNext(CoarseField last, int cluster)
+   {
+      int first = firstNode[cluster];
+      int lastFirst = last.firstNode[cluster];
+      int count = firstNode[cluster + 1] - first;
+      if (count != last.firstNode[cluster + 1] - lastFirst)
+      {
+         return false;
+      }
+      for (int i = 0; i < count; i++)
+      {
+         if (next[first + i] != last.next[lastFirst + i])
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // Dijkstra over the tiles of a cluster, from the crossings of each component into its next
+   // node or from its targets, like the field of DstarGrid
+   private byte[] refine(int cluster, float[] speed, float[] cost, IndexHeap heap, float[] tileTime)
+   {
+      int left = (cluster % columns) * clusterSize;
+      int top = (cluster / columns) * clusterSize;
+      int right = Math.min(width, left + clusterSize);
+      int bottom = Math.min(height, top + clusterSize);
+      short[] labels = component[cluster];
+      byte[] states = new byte[clusterSize * clusterSize];
+      Arrays.fill(tileTime, Float.POSITIVE_INFINITY);
+      heap.clear();
+
+      for (int i = 0; i < targets.length; i++)
+      {
+         if (tileCluster(targets[i]) == cluster)
+         {
+            int at = (targets[i] / stride - 1 - top) * clusterSize + targets[i] % stride - 1 - left;
+            tileTime[at] = 0;
+            heap.push(at, 0);
+         }
+      }
+
+      // the tiles that cross into the next node of their component, through their best crossing
+      for (int y = top; y < bottom; y++)
+      {
+         int index = (y + 1) * stride + left + 1;
+         for (int x = left; x < right; x++, index++)
+         {
+            int at = (y - top) * clusterSize + x - left;
+            if (labels[at] < 0 || next[firstNode[cluster] + labels[at]] < 0)
+            {
+               continue;
+            }
+            int nextNode = next[firstNode[cluster] + labels[at]];
+            if (nextNode == SELF)
+            {
+               continue;
+            }
+            int nextX = left + (nextNode >>> 16) % 3 * clusterSize - clusterSize;
+            int nextY = top + (nextNode >>> 16) / 3 * clusterSize - clusterSize;
+            int nextCluster = cluster + ((nextNode >>> 16) / 3 - 1) * columns + (nextNode >>> 16) % 3 - 1;
+            for (int i = 0; i < dir.length; i++)
+            {
+               int otherX = x + dir[i].x - nextX;
+               int otherY = y + dir[i].y - nextY;
+               if (otherX >= 0 && otherX < clusterSize && otherY >= 0 && otherY < clusterSize && speed[index + offsets[i]] > 0 && component[nextCluster][otherY * clusterSize + otherX] == (nextNode & 0xffff))
+               {
+                  float newTime = halflength[i] * (cost[index + offsets[i]] + cost[index]);
+                  if (newTime < tileTime[at])
+                  {
+                     tileTime[at] = newTime;
+                     states[at] = (byte) (i + 1);
+                     heap.push(at, newTime);
+                  }
+               }
+            }
+         }
+      }
+
+      while (!heap.isEmpty())
+      {
+         int at = heap.pop();
+         int x = left + at % clusterSize;
+         int y = top + at / clusterSize;
+         int index = (y + 1) * stride + x + 1;
+         for (int i = 0; i < dir.length; i++)
+         {
+            // the tile that heads for this one in direction i
+            int otherX = x - dir[i].x;
+            int otherY = y - dir[i].y;
+            int other = index - offsets[i];
+            if (otherX < left || otherX >= right || otherY < top || otherY >= bottom || speed[other] <= 0)
+            {
+               continue;
+            }
+            int otherAt = (otherY - top) * clusterSize + otherX - left;
+            float newTime = tileTime[at] + halflength[i] * (cost[index] + cost[other]);
+            if (newTime < tileTime[otherAt])
+            {
+               tileTime[otherAt] = newTime;
+               states[otherAt] = (byte) (i + 1);
+               heap.push(otherAt, newTime);
+            }
+         }
+      }
+      return states;
+   }
+
+   // the node of a tile, -1 for a tile without speed
+   private int node(int x, int y)
+   {
+      int cluster = (y / clusterSize) * columns + x / clusterSize;
+      int label = component[cluster][(y % clusterSize) * clusterSize + x % clusterSize];
+      return label < 0 ? -1 : firstNode[cluster] + label;
+   }
+
+   // the sorted nodes of some tiles, each once
+   private int[] nodes(int[] tiles)
+   {
+      int[] result = new int[tiles.length];
+      for (int i = 0; i < tiles.length; i++)
+      {
+         result[i] = node(tiles[i] % stride - 1, tiles[i] / stride - 1);
+      }
+      Arrays.sort(result);
+      int count = 0;
+      for (int i = 0; i < result.length; i++)
+      {
+         if (count == 0 || result[i] != result[count - 1])
+         {
+            result[count++] = result[i];
+         }
+      }
+      return Arrays.copyOf(result, count);
+   }
+
+   // the cluster of a tile index of the padded arrays
+   private int tileCluster(int index)
+   {
+      return (index / stride - 1) / clusterSize * columns + (index % stride - 1) / clusterSize;
+   }
+
+   // the mean cost of the tiles of a node of a cluster
+   private float cost(int node, int cluster)
+   {
+      return componentCost[cluster][node - firstNode[cluster]];
+   }
+
+   private static int[] sorted(int[] targets)
+   {
+      int[] result = targets.clone();
+      Arrays.sort(result);
+      return result;
+   }
+}
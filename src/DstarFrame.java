@@ -35,6 +35,10 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
   private Position lastDragPosition = null;
   private Position lastMovePosition = null;
   private boolean button = true;
+  // the last pixel of a drag with the middle button, which pans the view
+  private boolean panning = false;
+  private int panX = 0;
+  private int panY = 0;
   private Position[][] brushes = new Position[][]
   {
     {
@@ -111,6 +115,19 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
         canvasMouseMoved(evt);
       }
     });
+    mapCanvas.addMouseWheelListener(new java.awt.event.MouseWheelListener()
+    {
+
+      public void mouseWheelMoved(java.awt.event.MouseWheelEvent evt)
+      {
+        canvasMouseWheelMoved(evt);
+      }
+    });
+  }
+
+  private void canvasMouseWheelMoved(java.awt.event.MouseWheelEvent evt)
+  {
+    mapCanvas.zoom(evt.getWheelRotation() < 0 ? 1.25f : .8f, evt.getX(), evt.getY());
   }
 
   private void canvasMouseMoved(java.awt.event.MouseEvent evt)
@@ -121,6 +138,13 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
 
   private void canvasMouseDragged(java.awt.event.MouseEvent evt)
   {
+    if (panning)
+    {
+      mapCanvas.pan(evt.getX() - panX, evt.getY() - panY);
+      panX = evt.getX();
+      panY = evt.getY();
+      return;
+    }
     Position p = mapCanvas.parseMouse(evt.getX(), evt.getY());
 
     if (lastDragPosition != null && p != null)
@@ -159,6 +183,11 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
 
   private void canvasMouseReleased(java.awt.event.MouseEvent evt)
   {
+    if (panning)
+    {
+      panning = false;
+      return;
+    }
     lastDragPosition = null;
     attractor.x = target.x;
     attractor.y = target.y;
@@ -166,6 +195,13 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
 
   private void canvasMousePressed(java.awt.event.MouseEvent evt)
   {
+    if (evt.getButton() == MouseEvent.BUTTON2)
+    {
+      panning = true;
+      panX = evt.getX();
+      panY = evt.getY();
+      return;
+    }
     button = evt.getButton() == MouseEvent.BUTTON1;
     Position p = mapCanvas.parseMouse(evt.getX(), evt.getY());
     lastDragPosition = p;
@@ -317,7 +353,7 @@ public class DstarFrame extends javax.swing.JFrame implements Updateable
 
     if (mapCanvas != null)
     {
-      mapCanvas.repaint();
+      mapCanvas.setView(0, 0, 0);
     }
   }
 
@@ -21,7 +21,12 @@
 package dstarapp;
 
 import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** The search graph. Core D* algorithm in here. */
 public class DstarGrid
@@ -52,27 +57,165 @@ public class DstarGrid
       new Position(-1, 1),
       new Position(-1, -1)
    };
+   // grids with less tiles are always updated on the calling thread
+   private final static int PARALLEL_TILES = 1 << 14;
+   // the parallel sweep splits the rows in about this many bands per thread
+   private final static int BANDS_PER_THREAD = 4;
+   private final static int MIN_BAND_ROWS = 8;
    // all possible directions
    private Position[] dir = null;
    private float[] dirlength = null;
+   // half of each direction length, as each tile takes half of the length of an edge
+   private float[] halflength = null;
+   // index offset of each direction in the padded tile arrays
+   private int[] diroffset = null;
+   // All tile arrays are row-major and padded with a one tile ghost border, see index(x, y).
+   // Ghost tiles keep speed 0 and state 0, so they are never a candidate and the neighbor loop
+   // needs no bounds checks. This requires all connections to be within one tile.
    // States: 0 = empty, 12345 = direction
-   private int[][] tileState = null;
+   private int[] tileState = null;
    // time is used to get the most recent information
-   private float[][] tileTime = null;
+   private float[] tileTime = null;
    // the speed on can make on a tile
-   private float[][] tileSpeed = null;
+   private float[] tileSpeed = null;
+   // the time it takes to cross a tile, 1 / speed, kept up to date by setSpeed
+   private float[] tileCost = null;
+   // back buffers, written by move and swapped with tileState and tileTime
+   private int[] nextState = null;
+   private float[] nextTime = null;
    // grid size
    private int width = 0;
    private int height = 0;
+   // row length of the padded tile arrays
+   private int stride = 0;
    // keep up the remaining time
    private float waitTime = 0;
    // the last time move was called
    private long lastTime = -1;
-   // list of target and its attractor
-   private Vector<Position> targetList = null;
-   private Vector<Position> attractorList = null;
+   // the targets and their attractors
+   private Targets targets = null;
+   // Channels are fields of their own targets, with their own fade and flow time, that share the
+   // speeds of the grid. Channel 0 is the field of the tile arrays above. Channel c has its own
+   // padded arrays at c - 1, laid out like the tile arrays. Bit c - 1 modulo 32 of the live mask of
+   // a tile is set when that channel may have scent there, so a sweep can skip the channels without
+   // scent around a tile with one look at the masks of the tile and its neighbors.
+   private int channels = 0;
+   private Vector<String> channelNames = null;
+   private float[] channelFadeTime = new float[0];
+   private float[] channelFlowTime = new float[0];
+   private int[][] channelState = new int[0][];
+   private float[][] channelTime = new float[0][];
+   private int[][] channelNextState = new int[0][];
+   private float[][] channelNextTime = new float[0][];
+   private int[] channelLive = null;
+   private int[] channelNextLive = null;
+   // tiles of the targets put by the last move, the targets of the current field
+   private int[] fieldTargets = new int[2];
+   private int fieldTargetCount = 0;
+   // Hierarchical directions for the tiles the field did not reach: the coarse field of clusters
+   // of clusterSize tiles, 0 when not hierarchical, and the tiles with speeds set since it was
+   // built.
+   private int clusterSize = 0;
+   private CoarseField coarse = null;
+   private int changedFromX = Integer.MAX_VALUE;
+   private int changedFromY = Integer.MAX_VALUE;
+   private int changedToX = 0;
+   private int changedToY = 0;
    // all instances that want to be updated during successive moves
    private Vector<Updateable> updateableList = null;
+   // number of threads that update the tiles, 1 updates on the calling thread only
+   private int parallelism = 1;
+   private ForkJoinPool pool = null;
+   // random numbers of the moves are drawn from the stream of the move number
+   private RandomSource random = new RandomSource();
+   private long moves = 0;
+   // the edge times of the tile updated by each thread, see updateChannels()
+   private final ThreadLocal<float[]> edgeBuffer = new ThreadLocal<float[]>();
+   // the rows of the tile arrays, and then of the other channels
+   private final Rows denseRows = new Rows()
+   {
+
+      public void sweep(int fromY, int toY)
+      {
+         if (kernel != null)
+         {
+            kernel.sweep(DstarGrid.this, fromY, toY, tileState, tileTime, tileSpeed, tileCost, nextState, nextTime);
+         }
+         else
+         {
+            DstarGrid.this.sweep(fromY, toY);
+         }
+         if (channels > 0)
+         {
+            sweepChannels(fromY, toY);
+         }
+         if (fieldDirty != null)
+         {
+            markRows(fromY, toY);
+         }
+      }
+   };
+   // vector kernel for the rows of the tile arrays, if available and set
+   private RowKernel kernel = null;
+   // chunked, packed or memory mapped storage replaces the tile arrays when set
+   private boolean chunked = false;
+   private boolean packed = false;
+   private TileStorage storage = null;
+   // sparse updating only updates the tiles on the frontier: live tiles, their neighbors and
+   // tiles still to be reset
+   private boolean sparse = false;
+   private boolean frontierValid = false;
+   private int[] frontier = null;
+   private int frontierSize = 0;
+   private int[] nextFrontier = null;
+   private int nextFrontierSize = 0;
+   // bit set of the tiles on the next frontier
+   private long[] frontierMark = null;
+   // tiles updated to empty during the current move
+   private int[] cleared = null;
+   private int clearedSize = 0;
+   // Once a move changes no tile the grid is idle, and moves are skipped until a target moves, a
+   // speed is set or fadeTime or flowTime change. These are the target tiles and times it idles at.
+   private boolean idle = false;
+   private int[] idleTargets = null;
+   private float idleFadeTime = 0;
+   private float idleFlowTime = 0;
+   // incremental updating repairs the field of the tile arrays with D* Lite instead of moving it
+   private boolean incremental = false;
+   private DstarLite lite = null;
+   // fast marching solves continuous times and angles of the tile arrays instead of moving them
+   private boolean marching = false;
+   private FastMarching marcher = null;
+   // whether no tile on the frontier changed during the current sparse move
+   private boolean frontierStill = false;
+   // Snapshots of the field for other threads, published after moves when asked for. The changes
+   // of the field and of the speeds tell whether the last snapshot is behind the grid. Once a
+   // snapshot is taken, the sweeps or the storage mark the snapshot blocks whose field they change
+   // and setSpeed those whose speeds it changes, so the next snapshot only copies these. The
+   // snapshots of storage read its speeds through storageSpeeds.
+   private final AtomicReference<FieldSnapshot> snapshot = new AtomicReference<FieldSnapshot>();
+   private volatile boolean snapshotWanted = false;
+   private long fieldChanges = 0;
+   private long speedChanges = 0;
+   private long snapshotFieldChanges = -1;
+   private long snapshotSpeedChanges = -1;
+   private boolean[] fieldDirty = null;
+   private boolean[] speedDirty = null;
+   private FieldSnapshot.StorageSpeeds storageSpeeds = null;
+   // the field was written other than by the sweeps, all blocks are compared with the last snapshot
+   private boolean fieldRewritten = false;
+   // a block of the next snapshot as it is read, and blocks of one speed to share
+   private final int[] scratchState = new int[FieldSnapshot.BLOCK_TILES];
+   private final float[] scratchTime = new float[FieldSnapshot.BLOCK_TILES];
+   private final float[] scratchAngle = new float[FieldSnapshot.BLOCK_TILES];
+   private final float[] scratchSpeed = new float[FieldSnapshot.BLOCK_TILES];
+   private final HashMap<Float, float[]> uniformSpeeds = new HashMap<Float, float[]>();
+   // runtime metrics, recorded each tick when set, and the tile counts of the current tick
+   private DstarMetrics metrics = null;
+   private long tilesEvaluated = 0;
+   private long tilesChanged = 0;
+   private long tilesFaded = 0;
+   private long liveArea = 0;
 
    // The fadeTime (in seconds) is the time it takes for the targets scent to fade away.
    public float fadeTime = 10;
@@ -84,8 +227,9 @@ public class DstarGrid
    // Constructs a DstarGrid, tracing objects by propagating directions over time
    public DstarGrid()
    {
-      targetList = new Vector<Position>(2);
-      attractorList = new Vector<Position>(2);
+      targets = new Targets();
+      channelNames = new Vector<String>();
+      channelNames.add("default");
 
       updateableList = new Vector<Updateable>();
 
@@ -96,425 +240,1953 @@ public class DstarGrid
       updateableList.add(updateable);
    }
 
+   // Adds a target that moves to its attractor. The target position is updated by each move, and
+   // both positions may be changed by the caller. Like all targets and attractors, they are kept
+   // on the tiles of the grid, positions outside it are taken to its nearest edge tile.
    public void addTarget(Position target, Position attractor)
    {
       if (target != null && attractor != null)
       {
-         targetList.add(target);
-         attractorList.add(attractor);
+         targets.link(targets.add(clamp(target.x, width), clamp(target.y, height), clamp(attractor.x, width), clamp(attractor.y, height), 0), target, attractor);
+         idle = false;
+      }
+   }
+
+   // Adds a target at a tile, with its attractor on the same tile. Returns the number of the
+   // target, targets are numbered in the order they are added.
+   public int addTarget(int x, int y)
+   {
+      idle = false;
+      return targets.add(clamp(x, width), clamp(y, height), clamp(x, width), clamp(y, height), 0);
+   }
+
+   // adds a target at each x[i], y[i], returns the number of the first
+   public int addTargets(int[] x, int[] y)
+   {
+      idle = false;
+      int first = targets.count;
+      for (int i = 0; i < x.length; i++)
+      {
+         targets.add(clamp(x[i], width), clamp(y[i], height), clamp(x[i], width), clamp(y[i], height), 0);
+      }
+      return first;
+   }
+
+   // sets the attractor of a target, that it moves to from the next move
+   public void setAttractor(int target, int x, int y)
+   {
+      targets.setAttractor(target, clamp(x, width), clamp(y, height));
+   }
+
+   // sets the attractor of the first x.length targets to x[i], y[i]
+   public void setAttractors(int[] x, int[] y)
+   {
+      for (int i = 0; i < x.length; i++)
+      {
+         targets.setAttractor(i, clamp(x[i], width), clamp(y[i], height));
       }
    }
 
+   public int getTargetCount()
+   {
+      return targets.count;
+   }
+
+   public int getTargetX(int target)
+   {
+      return targets.x[target];
+   }
+
+   public int getTargetY(int target)
+   {
+      return targets.y[target];
+   }
+
+   // Finds the targets on the tiles fromX until toX and fromY until toY. Returns the number of
+   // targets found, of which up to result.length are put in result.
+   public int findTargets(int fromX, int fromY, int toX, int toY, int[] result)
+   {
+      return targets.find(fromX, fromY, toX, toY, width, height, result);
+   }
+
    public Position[] getTargets()
    {
-      Position[] result = new Position[targetList.size()];
-      targetList.toArray(result);
-      return result;
+      return targets.getPositions();
    }
 
-   public float getSpeed(int x, int y)
+   // Adds a channel with its own targets, fade time and flow time, and returns its number. Its
+   // field is moved in the same dense sweep as the other channels, which reads the speeds once
+   // for all of them. Channel 0 is the field of fadeTime and flowTime, named "default". Channels
+   // need the tile arrays, and are not moved sparse, incremental or marching.
+   public int addChannel(String name, float fadeTime, float flowTime)
    {
-      if (x < 0 || x >= width || y < 0 || y >= height)
+      checkChannels(storage != null || sparse || incremental || marching);
+      int channel = channels + 1;
+      channelNames.add(name);
+      channelFadeTime = Arrays.copyOf(channelFadeTime, channel);
+      channelFlowTime = Arrays.copyOf(channelFlowTime, channel);
+      channelFadeTime[channel - 1] = fadeTime;
+      channelFlowTime[channel - 1] = flowTime;
+      channelState = Arrays.copyOf(channelState, channel);
+      channelTime = Arrays.copyOf(channelTime, channel);
+      channelNextState = Arrays.copyOf(channelNextState, channel);
+      channelNextTime = Arrays.copyOf(channelNextTime, channel);
+      if (tileState != null)
       {
-         return -1;
+         newChannel(channel - 1, tileState.length);
       }
-      return tileSpeed[x][y];
+      if (tileState != null && channelLive == null)
+      {
+         channelLive = new int[tileState.length];
+         channelNextLive = new int[tileState.length];
+      }
+      channels = channel;
+      idle = false;
+      fieldChanges++;
+      return channel;
    }
 
-   public float getTime(int x, int y)
+   // throws if a mode that cannot move the channels is used together with them
+   private void checkChannels(boolean incompatible)
    {
-      if (x < 0 || x >= width || y < 0 || y >= height)
+      if (incompatible)
       {
-         return -1;
+         throw new IllegalStateException("channels need dense tile arrays, without sparse, incremental or marching moves");
       }
-      return tileTime[x][y];
    }
 
-   public String getDirection(int x, int y)
+   // allocate the arrays of a channel, for tile arrays of the given size
+   private void newChannel(int at, int size)
    {
-      if (x < 0 || x >= width || y < 0 || y >= height)
+      channelState[at] = new int[size];
+      channelTime[at] = new float[size];
+      channelNextState[at] = new int[size];
+      channelNextTime[at] = new float[size];
+   }
+
+   // the number of a named channel, or -1
+   public int getChannel(String name)
+   {
+      return channelNames.indexOf(name);
+   }
+
+   public int getChannelCount()
+   {
+      return channels + 1;
+   }
+
+   public void setChannelTimes(int channel, float fadeTime, float flowTime)
+   {
+      if (channel == 0)
       {
-         return "none";
+         this.fadeTime = fadeTime;
+         this.flowTime = flowTime;
       }
-      if (tileState[x][y] == 0 || tileState[x][y] > dir.length)
+      else
       {
-         return "none";
+         channelFadeTime[channel - 1] = fadeTime;
+         channelFlowTime[channel - 1] = flowTime;
       }
-      Position direction = dir[tileState[x][y] - 1];
-      return "[" + direction.x + "," + (direction.y) + "]";
+      idle = false;
    }
 
-   public Color[][] getColorMap()
+   public float getChannelFadeTime(int channel)
    {
-      Color[][] result = new Color[width][height];
+      return channel == 0 ? fadeTime : channelFadeTime[channel - 1];
+   }
 
-      for (int y = 0; y < height; y++)
+   public float getChannelFlowTime(int channel)
+   {
+      return channel == 0 ? flowTime : channelFlowTime[channel - 1];
+   }
+
+   // adds a target of a channel at a tile, like addTarget(x, y)
+   public int addTarget(int channel, int x, int y)
+   {
+      if (channel < 0 || channel > channels)
       {
-         for (int x = 0; x < width; x++)
-         {
-            float time = tileTime[x][y] / fadeTime;
-            if (tileState[x][y] == 0)
-            {
-               time = 1;
-            }
-            if (time > 1)
-            {
-               time = 1;
-            }
-            if (time < 0)
-            {
-               time = 0;
-            }
-            float speed = (float) Math.sqrt(tileSpeed[x][y]);
-            if (speed > 1)
-            {
-               speed = 1;
-            }
-            if (speed < 0)
-            {
-               speed = 0;
-            }
-            result[x][y] = Color.getHSBColor(0, 1 - time, speed);
-         }
+         throw new IllegalArgumentException("no channel " + channel);
       }
+      idle = false;
+      return targets.add(clamp(x, width), clamp(y, height), clamp(x, width), clamp(y, height), channel);
+   }
 
+   // a coordinate of a target or attractor on a grid side of the given size, at its nearest tile,
+   // as is before the grid has a size
+   private static int clamp(int value, int size)
+   {
+      return size > 0 ? Math.max(0, Math.min(value, size - 1)) : value;
+   }
 
-      return result;
+   // the time of a tile in the field of a channel, of the latest snapshot, see getSnapshot()
+   public float getTime(int channel, int x, int y)
+   {
+      return getSnapshot().getTime(channel, x, y);
    }
 
-   public float[][] getDirectionMap()
+   // the direction of a tile in the field of a channel, of the latest snapshot
+   public String getDirection(int channel, int x, int y)
    {
-      float[][] result = new float[width][height];
+      return getSnapshot().getDirection(channel, x, y);
+   }
 
-      for (int y = 0; y < height; y++)
+   // like getPathQuery(), for the field of a channel
+   public PathQuery getPathQuery(int channel)
+   {
+      return getSnapshot().getPathQuery(channel);
+   }
+
+   // tiles of the targets of a channel put by the last move
+   private int[] fieldTargets(int channel)
+   {
+      int[] result = new int[fieldTargetCount];
+      int count = 0;
+      for (int i = 0; i < fieldTargetCount; i++)
       {
-         for (int x = 0; x < width; x++)
+         if (targets.channel[i] == channel)
          {
-
-            if (tileState[x][y] == 0 || tileState[x][y] > dir.length)
-            {
-               result[x][y] = -1;
-            }
-            else
-            {
-               Position direction = dir[tileState[x][y] - 1];
-               if (direction.y > 0)
-               {
-                  result[x][y] = (float) -Math.atan(direction.x / direction.y) + 6.283185f;
-               }
-               else if (direction.y < 0)
-               {
-                  result[x][y] = (float) -Math.atan(direction.x / direction.y) + 3.141593f;
-               }
-               else
-               {
-                  result[x][y] = direction.x > 0 ? 4.712389f : 1.570796f;
-               }
-            }
+            result[count++] = fieldTargets[i];
          }
       }
+      return Arrays.copyOf(result, count);
+   }
 
-      return result;
+   // the speed, time and direction of a tile of the latest snapshot, see getSnapshot()
+   public float getSpeed(int x, int y)
+   {
+      return getSnapshot().getSpeed(x, y);
    }
 
-   public int getWidth()
+   public float getTime(int x, int y)
    {
-      return width;
+      return getSnapshot().getTime(x, y);
    }
 
-   public int getHeight()
+   public String getDirection(int x, int y)
    {
-      return height;
+      return getSnapshot().getDirection(x, y);
    }
 
-   public void setSpeed(int x, int y, float speed)
+   // the color map of the latest snapshot, see getSnapshot()
+   public Color[][] getColorMap()
    {
-      if (x < 0 || x >= width || y < 0 || y >= height)
-      {
-         return;
-      }
-      tileSpeed[x][y] = speed;
+      return getSnapshot().getColorMap();
    }
 
-   public void setSpeed(float speed)
+   // Paths along the directions of the latest snapshot, see getSnapshot(), to follow paths from
+   // many tiles to the targets while the grid moves on. All its directions are of one field.
+   public PathQuery getPathQuery()
    {
-      for (int y = 0; y < height; y++)
+      return getSnapshot().getPathQuery();
+   }
+
+   // the direction map of the latest snapshot, see getSnapshot()
+   public float[][] getDirectionMap()
+   {
+      return getSnapshot().getDirectionMap();
+   }
+
+   // The latest snapshot of the field. While the grid is started, see start(), this does not wait
+   // for it: when the field moved on since, the grid is asked to take a new snapshot after its next
+   // moves, so the snapshot may be one step behind. Otherwise, and for the first snapshot, a
+   // snapshot that is behind is taken on the calling thread.
+   public FieldSnapshot getSnapshot()
+   {
+      FieldSnapshot latest = snapshot.get();
+      if (latest == null)
       {
-         for (int x = 0; x < width; x++)
+         return takeSnapshot();
+      }
+      if (latest.getEpoch() != moves || snapshotFieldChanges != fieldChanges || snapshotSpeedChanges != speedChanges)
+      {
+         if (lastTime == -1)
          {
-            setSpeed(x, y, speed);
+            return takeSnapshot();
          }
+         snapshotWanted = true;
       }
+      return latest;
    }
 
-   // (re)set the size of the grid
-   public void setSize(int width, int height)
+   // Takes a snapshot of the field now, between two moves, and publishes it to getSnapshot().
+   // Only the blocks marked since the last snapshot are read, and copied when they differ from it.
+   // All other blocks are shared with the last snapshot, which is kept when nothing changed.
+   public synchronized FieldSnapshot takeSnapshot()
    {
-      this.width = width;
-      this.height = height;
-
-      tileState = new int[width][height];
-      tileTime = new float[width][height];
-      tileSpeed = new float[width][height];
-
-      for (int y = 0; y < height; y++)
+      FieldSnapshot last = snapshot.get();
+      if (last != null && last.getEpoch() == moves && snapshotFieldChanges == fieldChanges && snapshotSpeedChanges == speedChanges && last.getFadeTime() == fadeTime && last.getConnection() == dir && last.getCoarse() == coarse)
       {
-         for (int x = 0; x < width; x++)
+         snapshotWanted = false;
+         return last;
+      }
+      int blocksWide = FieldSnapshot.blocksWide(width);
+      int count = blocksWide * FieldSnapshot.blocksWide(height);
+      float[] angle = marcher != null ? marcher.getAngles() : null;
+      if (last == null || fieldDirty == null || last.getWidth() != width || last.getHeight() != height || last.hasAngles() != (angle != null) || last.getChannelCount() != channels + 1)
+      {
+         // read all blocks, and mark the changes from here on
+         last = null;
+         fieldDirty = new boolean[count];
+         speedDirty = new boolean[count];
+         if (storage != null)
+         {
+            storage.setChanged(fieldDirty);
+         }
+      }
+      if (storage != null && storageSpeeds == null)
+      {
+         storageSpeeds = new FieldSnapshot.StorageSpeeds(storage, width, height);
+      }
+      FieldSnapshot.Block[] blocks = new FieldSnapshot.Block[count];
+      FieldSnapshot.Block[][] channelBlocks = new FieldSnapshot.Block[channels][count];
+      for (int b = 0; b < count; b++)
+      {
+         int fromX = b % blocksWide << FieldSnapshot.BLOCK_SHIFT;
+         int fromY = b / blocksWide << FieldSnapshot.BLOCK_SHIFT;
+         boolean field = last == null || fieldRewritten || fieldDirty[b];
+         boolean speeds = last == null || speedDirty[b];
+         FieldSnapshot.Block old = last != null ? last.getBlock(b) : null;
+         blocks[b] = field || speeds ? readBlock(fromX, fromY, old, field, speeds, tileState, tileTime, angle) : old;
+         for (int channel = 1; channel <= channels; channel++)
          {
-            tileState[x][y] = 0;
-            tileTime[x][y] = 0;
-            tileSpeed[x][y] = 0;
+            old = last != null ? last.getChannelBlock(channel, b) : null;
+            channelBlocks[channel - 1][b] = field ? readBlock(fromX, fromY, old, true, false, channelState[channel - 1], channelTime[channel - 1], null) : old;
          }
       }
+      Arrays.fill(fieldDirty, false);
+      Arrays.fill(speedDirty, false);
+      fieldRewritten = false;
+      boolean sameTargets = last != null && snapshotFieldChanges == fieldChanges;
+      int[] fieldTargetTiles = sameTargets ? last.getTargets() : fieldTargets(0);
+      int[][] channelTargetTiles = new int[channels][];
+      for (int channel = 1; channel <= channels; channel++)
+      {
+         channelTargetTiles[channel - 1] = sameTargets ? last.getChannelTargets(channel) : fieldTargets(channel);
+      }
 
-      targetList = new Vector<Position>(2);
-      attractorList = new Vector<Position>(2);
+      FieldSnapshot result = new FieldSnapshot(moves, width, height, fadeTime, dir, blocks, channelBlocks, angle != null, fieldTargetTiles, channelTargetTiles, coarse, storageSpeeds);
+      snapshotFieldChanges = fieldChanges;
+      snapshotSpeedChanges = speedChanges;
+      snapshotWanted = false;
+      snapshot.set(result);
+      return result;
    }
 
-   public void setConnection(Position[] dir)
+   // Read the block of the next snapshot with its top left at a tile, its field or speeds or both,
+   // the field from the given padded arrays or from the storage when they are null. Arrays equal
+   // to those of the old block are shared with it, and so are empty fields and full blocks of one
+   // speed with other blocks. The speeds of storage are left to storageSpeeds until they change.
+   private FieldSnapshot.Block readBlock(int fromX, int fromY, FieldSnapshot.Block old, boolean field, boolean speeds, int[] fieldState, float[] fieldTime, float[] angle)
    {
-      this.dir = dir;
-      dirlength = new float[dir.length];
-      for (int i = 0; i < dir.length; i++)
+      int columns = Math.min(FieldSnapshot.BLOCK_SIZE, width - fromX);
+      int rows = Math.min(FieldSnapshot.BLOCK_SIZE, height - fromY);
+      int[] state = old != null ? old.state : null;
+      float[] time = old != null ? old.time : null;
+      float[] blockAngle = old != null ? old.angle : null;
+      float[] speed = old != null ? old.speed : null;
+      if (field && storage != null && storage.isEmpty(fromX, fromY, fromX + columns, fromY + rows))
       {
-         dirlength[i] = (float) Math.sqrt(dir[i].x * dir[i].x + dir[i].y * dir[i].y);
+         state = FieldSnapshot.EMPTY_STATE;
+         time = FieldSnapshot.EMPTY_TIME;
       }
-      for (int y = 0; y < height; y++)
+      else if (field)
       {
-         for (int x = 0; x < width; x++)
+         for (int y = 0; y < rows; y++)
          {
-            if (tileTime[x][y] > 0)
+            int at = y << FieldSnapshot.BLOCK_SHIFT;
+            if (storage == null)
+            {
+               int index = index(fromX, fromY + y);
+               System.arraycopy(fieldState, index, scratchState, at, columns);
+               System.arraycopy(fieldTime, index, scratchTime, at, columns);
+               if (angle != null)
+               {
+                  System.arraycopy(angle, index, scratchAngle, at, columns);
+               }
+               continue;
+            }
+            for (int x = 0; x < columns; x++)
             {
-               tileState[x][y] = (int) (Math.random() * dir.length + 1);
+               scratchState[at + x] = storage.getState(fromX + x, fromY + y);
+               scratchTime[at + x] = storage.getTime(fromX + x, fromY + y);
             }
          }
+         state = share(scratchState, state, FieldSnapshot.EMPTY_STATE, columns, rows);
+         time = share(scratchTime, time, FieldSnapshot.EMPTY_TIME, columns, rows);
+         blockAngle = angle != null ? share(scratchAngle, blockAngle, null, columns, rows) : null;
       }
-   }
-
-   public void randomize(float p)
-   {
-
-      for (int y = 0; y < height; y++)
+      if (speeds && storage != null && !storageSpeeds.isChanged((fromY >> FieldSnapshot.BLOCK_SHIFT) * FieldSnapshot.blocksWide(width) + (fromX >> FieldSnapshot.BLOCK_SHIFT)))
       {
-         for (int x = 0; x < width; x++)
+         speed = null;
+      }
+      else if (speeds)
+      {
+         boolean uniform = columns == FieldSnapshot.BLOCK_SIZE && rows == FieldSnapshot.BLOCK_SIZE;
+         for (int y = 0; y < rows; y++)
          {
-            if (x == 0 || y == 0 || x == width - 1 || y == height - 1)
+            int at = y << FieldSnapshot.BLOCK_SHIFT;
+            for (int x = 0; x < columns; x++)
             {
-               tileSpeed[x][y] = 0;
+               scratchSpeed[at + x] = speed(fromX + x, fromY + y);
+               uniform &= scratchSpeed[at + x] == scratchSpeed[0];
             }
-            else
+         }
+         float[] shared = null;
+         if (uniform)
+         {
+            shared = uniformSpeeds.get(scratchSpeed[0]);
+            if (shared == null)
             {
-               tileSpeed[x][y] = Math.random() < p ? 0 : 1;
+               shared = new float[FieldSnapshot.BLOCK_TILES];
+               Arrays.fill(shared, scratchSpeed[0]);
+               uniformSpeeds.put(scratchSpeed[0], shared);
             }
          }
+         speed = share(scratchSpeed, speed, shared, columns, rows);
       }
-
-      for (int i = 0; i < targetList.size(); i++)
+      if (old != null && state == old.state && time == old.time && blockAngle == old.angle && speed == old.speed)
       {
-         Position position = targetList.get(i);
-         tileSpeed[position.x][position.y] = 1;
-         tileSpeed[position.x + 1][position.y] = 1;
-         tileSpeed[position.x][position.y + 1] = 1;
-         tileSpeed[position.x - 1][position.y] = 1;
-         tileSpeed[position.x][position.y - 1] = 1;
+         return old;
       }
+      return new FieldSnapshot.Block(state, time, blockAngle, speed);
    }
 
-   //
-   // Simulation ticking
-   //
-
-   public void start()
+   // the old array when the tiles of a block read into scratch equal it, else the shared array
+   // when they equal that, else a copy of scratch
+   private static int[] share(int[] scratch, int[] old, int[] shared, int columns, int rows)
    {
-      lastTime = System.nanoTime();
+      if (old != null && same(scratch, old, columns, rows))
+      {
+         return old;
+      }
+      if (shared != null && same(scratch, shared, columns, rows))
+      {
+         return shared;
+      }
+      return scratch.clone();
    }
 
-   public void stop()
+   private static float[] share(float[] scratch, float[] old, float[] shared, int columns, int rows)
    {
-      lastTime = -1;
+      if (old != null && same(scratch, old, columns, rows))
+      {
+         return old;
+      }
+      if (shared != null && same(scratch, shared, columns, rows))
+      {
+         return shared;
+      }
+      return scratch.clone();
    }
 
-   public void step()
+   // whether the tiles of two block arrays inside the grid are equal
+   private static boolean same(int[] a, int[] b, int columns, int rows)
    {
-      moveTime(period);
+      for (int y = 0; y < rows; y++)
+      {
+         for (int at = y << FieldSnapshot.BLOCK_SHIFT, end = at + columns; at < end; at++)
+         {
+            if (a[at] != b[at])
+            {
+               return false;
+            }
+         }
+      }
+      return true;
    }
 
-   // success simulation time according to clock time
-   public void move(int maxFrames)
+   private static boolean same(float[] a, float[] b, int columns, int rows)
    {
-      if (lastTime == -1)
+      for (int y = 0; y < rows; y++)
       {
-         lastTime = System.nanoTime();
-         return;
+         for (int at = y << FieldSnapshot.BLOCK_SHIFT, end = at + columns; at < end; at++)
+         {
+            if (a[at] != b[at])
+            {
+               return false;
+            }
+         }
       }
+      return true;
+   }
 
-      long currentTime = System.nanoTime();
-      float timeStep = 1e-9f * (currentTime - lastTime);
-      lastTime = currentTime;
-
-      if (maxFrames > 0 && timeStep > period * maxFrames)
+   // mark the snapshot block of a tile of the padded arrays as changed in its field
+   private void fieldChanged(int index)
+   {
+      if (fieldDirty != null)
       {
-         timeStep = period * maxFrames;
+         int x = index % stride - 1;
+         int y = index / stride - 1;
+         fieldDirty[(y >> FieldSnapshot.BLOCK_SHIFT) * FieldSnapshot.blocksWide(width) + (x >> FieldSnapshot.BLOCK_SHIFT)] = true;
       }
-      moveTime(timeStep);
    }
 
-   // make as much D* steps as time has passed, and update GUI
-   private void moveTime(float timeStep)
+   // Mark the snapshot blocks of the rows fromY until toY that the sweep changed in any channel,
+   // comparing the back with the front buffers up to the first change in a block.
+   private void markRows(int fromY, int toY)
    {
-
-      waitTime += timeStep;
-
-      // for remaining periods
-      do
+      boolean[] dirty = fieldDirty;
+      int blocksWide = FieldSnapshot.blocksWide(width);
+      for (int y = fromY; y < toY; y++)
       {
-         move();
-         waitTime -= period;
-      } while (waitTime > period + 1e-9);
+         int row = (y >> FieldSnapshot.BLOCK_SHIFT) * blocksWide;
+         for (int blockX = 0; blockX < blocksWide; blockX++)
+         {
+            if (dirty[row + blockX])
+            {
+               continue;
+            }
+            int index = index(blockX << FieldSnapshot.BLOCK_SHIFT, y);
+            int end = index + Math.min(FieldSnapshot.BLOCK_SIZE, width - (blockX << FieldSnapshot.BLOCK_SHIFT));
+            for (; index < end; index++)
+            {
+               if (nextState[index] != tileState[index] || nextTime[index] != tileTime[index] || channelChanged(index))
+               {
+                  dirty[row + blockX] = true;
+                  break;
+               }
+            }
+         }
+      }
+   }
 
-      for (int i = 0; i < updateableList.size(); i++)
+   // whether the sweep changed a tile in a channel other than 0
+   private boolean channelChanged(int index)
+   {
+      for (int at = 0; at < channels; at++)
       {
-         updateableList.get(i).update();
+         if (channelNextState[at][index] != channelState[at][index] || channelNextTime[at][index] != channelTime[at][index])
+         {
+            return true;
+         }
       }
+      return false;
    }
 
-   // one step in the D* algorithm
-   private void move()
+   public int getParallelism()
    {
+      return parallelism;
+   }
 
-      float[][] tempTime = null;
-      int[][] tempState = null;
+   public boolean isSparse()
+   {
+      return sparse;
+   }
 
-      // update the target position
-      for (int i = 0; i < targetList.size(); i++)
-      {
-         Position position = targetList.get(i);
-         Position attractor = attractorList.get(i);
+   public boolean isChunked()
+   {
+      return chunked;
+   }
 
-         // move target
-         int dx = attractor.x - position.x;
-         int dy = attractor.y - position.y;
+   public boolean isPacked()
+   {
+      return packed;
+   }
 
-         if (dx > 0 && position.x < width - 1)
-         {
-            position.x++;
-         }
-         if (dx < 0 && position.x > 0)
-         {
-            position.x--;
+   public boolean isIncremental()
+   {
+      return incremental;
+   }
+
+   public boolean isMarching()
+   {
+      return marching;
+   }
+
+   public boolean isHierarchical()
+   {
+      return clusterSize > 0;
+   }
+
+   public int getClusterSize()
+   {
+      return clusterSize;
+   }
+
+   public boolean isVectorized()
+   {
+      return kernel != null;
+   }
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public int getHeight()
+   {
+      return height;
+   }
+
+   public void setSpeed(int x, int y, float speed)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return;
+      }
+      idle = false;
+      speedChanges++;
+      if (speedDirty != null)
+      {
+         speedDirty[(y >> FieldSnapshot.BLOCK_SHIFT) * FieldSnapshot.blocksWide(width) + (x >> FieldSnapshot.BLOCK_SHIFT)] = true;
+      }
+      if (storageSpeeds != null)
+      {
+         storageSpeeds.setSpeed(x, y, speed);
+         return;
+      }
+      if (storage != null)
+      {
+         storage.setSpeed(x, y, speed);
+         return;
+      }
+      changedFromX = Math.min(changedFromX, x);
+      changedFromY = Math.min(changedFromY, y);
+      changedToX = Math.max(changedToX, x + 1);
+      changedToY = Math.max(changedToY, y + 1);
+      if (lite != null)
+      {
+         lite.speedChanged(index(x, y));
+      }
+      tileSpeed[index(x, y)] = speed;
+      tileCost[index(x, y)] = 1 / speed;
+   }
+
+   public void setSpeed(float speed)
+   {
+      idle = false;
+      speedChanges++;
+      if (storage != null)
+      {
+         if (storageSpeeds != null)
+         {
+            storageSpeeds.setSpeed(speed);
+         }
+         else
+         {
+            storage.setSpeed(speed);
+         }
+         if (speedDirty != null)
+         {
+            Arrays.fill(speedDirty, true);
+         }
+         return;
+      }
+      for (int y = 0; y < height; y++)
+      {
+         for (int x = 0; x < width; x++)
+         {
+            setSpeed(x, y, speed);
+         }
+      }
+   }
+
+   // Sets the source of all random numbers. A seeded source makes the moves reproducible, for any
+   // parallelism or storage.
+   public void setRandom(RandomSource random)
+   {
+      this.random = random;
+   }
+
+   // Sets the metrics that record the time and tiles of every tick, or null to record nothing.
+   // Counting the tiles takes an extra pass over the tiles updated by each tick.
+   public void setMetrics(DstarMetrics metrics)
+   {
+      this.metrics = metrics;
+   }
+
+   public DstarMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   // Whether the grid reached a fixed point, where moves change no tile and are skipped. Only
+   // tile arrays, dense, sparse, incremental or marching, become idle.
+   public boolean isIdle()
+   {
+      return idle;
+   }
+
+   // Sets vectorized updating of the tile arrays, when the vector kernel and the incubating
+   // jdk.incubator.vector module are available. Returns whether vectorized updating is used.
+   public boolean setVectorized(boolean vectorized)
+   {
+      kernel = null;
+      if (vectorized)
+      {
+         try
+         {
+            kernel = (RowKernel) Class.forName("dstarapp.VectorKernel").getDeclaredConstructor().newInstance();
+         }
+         catch (ReflectiveOperationException | LinkageError e)
+         {
+            // no vector kernel, update tile by tile
+         }
+      }
+      return kernel != null;
+   }
+
+   // Sets the number of threads used to update the tiles. The rows are then swept in bands on a
+   // ForkJoinPool, 1 keeps the sequential sweep.
+   public void setParallelism(int parallelism)
+   {
+      if (parallelism < 1)
+      {
+         parallelism = 1;
+      }
+      if (parallelism != this.parallelism && pool != null)
+      {
+         pool.shutdown();
+         pool = null;
+      }
+      this.parallelism = parallelism;
+   }
+
+   // Sets hierarchical directions, with clusters of clusterSize by clusterSize tiles up to 128, or
+   // 0 to turn them off. The clusters make a coarse grid, solved from the targets at once in every
+   // move that changed targets or speeds. Tiles the field did not reach get a direction towards
+   // the next cluster on the way to the nearest target, from the first move on instead of once
+   // the field arrives. The field can then be kept near the targets with a short fadeTime, and
+   // sparse updating only updates the tiles there. For tile arrays only.
+   public void setHierarchical(int clusterSize)
+   {
+      this.clusterSize = Math.max(0, Math.min(clusterSize, CoarseField.MAX_CLUSTER_SIZE));
+      coarse = null;
+      idle = false;
+   }
+
+   // Sets incremental updating. Moves then no longer let the scent flow a tile at a time, but keep
+   // the field at the fixed point the moves would reach if the targets stood still: the shortest
+   // time of each tile to a target, below fadeTime, over tiles below flowTime. D* Lite repairs only
+   // the tiles that depend on the speeds set and targets moved since the last move. For the tile
+   // arrays and the targets of channel 0 only.
+   public void setIncremental(boolean incremental)
+   {
+      checkChannels(incremental && channels > 0);
+      this.incremental = incremental;
+      idle = false;
+      frontierValid = false;
+      newLite();
+   }
+
+   // Sets fast marching. Moves then keep the field at continuous arrival times, solved from the
+   // speeds as if the scent could flow in any direction, and getDirectionMap() gives each tile the
+   // angle down their gradient. The field is solved again in one pass when a target moved, a speed
+   // was set or the times changed. Takes the place of incremental updating. For the tile arrays
+   // and the targets of channel 0 only.
+   public void setMarching(boolean marching)
+   {
+      checkChannels(marching && channels > 0);
+      this.marching = marching;
+      idle = false;
+      frontierValid = false;
+      fieldChanges++;
+      fieldRewritten = true;
+      newLite();
+   }
+
+   // Sets sparse updating, where a move only updates the tiles around the live scent instead of
+   // the whole grid. Sparse moves are always done on the calling thread.
+   public void setSparse(boolean sparse)
+   {
+      checkChannels(sparse && channels > 0);
+      this.sparse = sparse;
+      frontierValid = false;
+      idle = false;
+   }
+
+   // Sets chunked storage, used from the next setSize(). Chunks of tiles are then only allocated
+   // when their speed is set or scent arrives, and only chunks with scent are moved.
+   public void setChunked(boolean chunked)
+   {
+      this.chunked = chunked;
+   }
+
+   // Sets packed storage, used from the next setSize() unless storage is chunked. The state and
+   // time of a tile are then packed in one int, with the time in fixed point relative to fadeTime.
+   public void setPacked(boolean packed)
+   {
+      this.packed = packed;
+   }
+
+   // Uses an existing terrain file as memory mapped tile storage, and sets the size of the grid to
+   // the size of the terrain. Speed changes are written to the file.
+   public void openTerrain(File file) throws IOException
+   {
+      MappedTiles tiles = MappedTiles.open(this, file);
+      setSize(tiles.getWidth(), tiles.getHeight(), tiles);
+   }
+
+   // Creates a terrain file of the given size with all speeds 0, and uses it like openTerrain().
+   public void createTerrain(File file, int width, int height) throws IOException
+   {
+      setSize(width, height, MappedTiles.create(this, file, width, height));
+   }
+
+   // (re)set the size of the grid
+   public void setSize(int width, int height)
+   {
+      if (chunked)
+      {
+         setSize(width, height, new TileChunks(this, width, height));
+      }
+      else if (packed)
+      {
+         setSize(width, height, new PackedTiles(this, width, height));
+      }
+      else
+      {
+         setSize(width, height, null);
+      }
+   }
+
+   // (re)set the size of the grid, with the given storage or with tile arrays if null
+   private void setSize(int width, int height, TileStorage storage)
+   {
+      checkChannels(storage != null && channels > 0);
+      this.width = width;
+      this.height = height;
+      this.storage = storage;
+      stride = width + 2;
+      idle = false;
+      fieldChanges++;
+      speedChanges++;
+      fieldDirty = null;
+      speedDirty = null;
+      storageSpeeds = null;
+
+      targets = new Targets();
+      fieldTargetCount = 0;
+      coarse = null;
+      lite = null;
+      marcher = null;
+
+      if (storage != null)
+      {
+         tileState = null;
+         tileTime = null;
+         tileSpeed = null;
+         tileCost = null;
+         nextState = null;
+         nextTime = null;
+         if (dir != null)
+         {
+            storage.setConnection(dir);
+         }
+         return;
+      }
+
+      int size = stride * (height + 2);
+      tileState = new int[size];
+      tileTime = new float[size];
+      tileSpeed = new float[size];
+      tileCost = new float[size];
+      Arrays.fill(tileCost, Float.POSITIVE_INFINITY);
+      nextState = new int[size];
+      nextTime = new float[size];
+      for (int at = 0; at < channels; at++)
+      {
+         newChannel(at, size);
+      }
+      channelLive = channels > 0 ? new int[size] : null;
+      channelNextLive = channels > 0 ? new int[size] : null;
+      frontierValid = false;
+
+      updateOffsets();
+      newLite();
+   }
+
+   public void setConnection(Position[] dir)
+   {
+      this.dir = dir;
+      idle = false;
+      coarse = null;
+      fieldChanges++;
+      fieldRewritten = true;
+      dirlength = new float[dir.length];
+      halflength = new float[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         dirlength[i] = (float) Math.sqrt(dir[i].x * dir[i].x + dir[i].y * dir[i].y);
+         halflength[i] = .5f * dirlength[i];
+      }
+      if (storage != null)
+      {
+         storage.setConnection(dir);
+         return;
+      }
+      updateOffsets();
+      newLite();
+      for (int y = 0; y < height; y++)
+      {
+         int index = index(0, y);
+         for (int x = 0; x < width; x++, index++)
+         {
+            if (tileTime[index] > 0)
+            {
+               tileState[index] = (int) (random.nextDouble() * dir.length + 1);
+            }
+         }
+      }
+   }
+
+   // a new incremental or marching updater for the tile arrays and connection, when set
+   private void newLite()
+   {
+      boolean tiles = storage == null && diroffset != null;
+      marcher = marching && tiles ? new FastMarching(width, height, tileSpeed, tileCost, dir, diroffset) : null;
+      lite = incremental && !marching && tiles ? new DstarLite(width, height, tileSpeed, tileCost, diroffset, halflength) : null;
+   }
+
+   // index of a tile in the padded tile arrays
+   int index(int x, int y)
+   {
+      return (y + 1) * stride + x + 1;
+   }
+
+   // Number of a tile, it draws its random numbers in a move with it. This is the index of the
+   // tile in the tile arrays, for any storage, so all ways of moving give the same result.
+   long tile(int x, int y)
+   {
+      return (y + 1L) * stride + x + 1;
+   }
+
+   // random source of the kernel and randomize()
+   RandomSource getRandom()
+   {
+      return random;
+   }
+
+   // kernel parameters for a RowKernel
+   int[] getOffsets()
+   {
+      return diroffset;
+   }
+
+   float[] getHalfLengths()
+   {
+      return halflength;
+   }
+
+   // the number of moves made so far
+   public long getMoves()
+   {
+      return moves;
+   }
+
+   // the speed of a tile inside the grid, from either storage
+   private float speed(int x, int y)
+   {
+      return storage != null ? storage.getSpeed(x, y) : tileSpeed[index(x, y)];
+   }
+
+   // recalculate the direction offsets for the current row length
+   private void updateOffsets()
+   {
+      if (dir == null)
+      {
+         return;
+      }
+      diroffset = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         diroffset[i] = dir[i].y * stride + dir[i].x;
+      }
+      frontierValid = false;
+   }
+
+   public void randomize(float p)
+   {
+
+      for (int y = 0; y < height; y++)
+      {
+         for (int x = 0; x < width; x++)
+         {
+            if (x == 0 || y == 0 || x == width - 1 || y == height - 1)
+            {
+               setSpeed(x, y, 0);
+            }
+            else
+            {
+               setSpeed(x, y, random.nextDouble() < p ? 0 : 1);
+            }
+         }
+      }
+
+      // clear the targets surroundings, through setSpeed to keep the ghost border intact
+      Position[] positions = targets.getPositions();
+      for (int i = 0; i < positions.length; i++)
+      {
+         Position position = positions[i];
+         setSpeed(position.x, position.y, 1);
+         setSpeed(position.x + 1, position.y, 1);
+         setSpeed(position.x, position.y + 1, 1);
+         setSpeed(position.x - 1, position.y, 1);
+         setSpeed(position.x, position.y - 1, 1);
+      }
+   }
+
+   //
+   // Simulation ticking
+   //
+
+   public void start()
+   {
+      lastTime = System.nanoTime();
+   }
+
+   public void stop()
+   {
+      lastTime = -1;
+   }
+
+   public void step()
+   {
+      moveTime(period);
+   }
+
+   // make a number of moves as fast as possible, without clock time or GUI
+   public void run(int ticks)
+   {
+      if (ticks > 0)
+      {
+         moveFrames(ticks);
+      }
+   }
+
+   // make moves as fast as possible until the condition is reached or maxTicks moves are made,
+   // returns the number of moves made
+   public long runUntil(Condition condition, long maxTicks)
+   {
+      long ticks = 0;
+      while (ticks < maxTicks && !condition.reached(this))
+      {
+         moveFrames(1);
+         ticks++;
+      }
+      return ticks;
+   }
+
+   // Puts the field at once at the fixed point the moves would reach if the targets stood still,
+   // like setIncremental(), solved in one pass from all targets instead of the many moves it takes
+   // the scent to flow there, or the continuous field when marching. The targets stay where they
+   // are. For the tile arrays and the targets of channel 0 only, returns false for other storage.
+   public boolean converge()
+   {
+      synchronized (this)
+      {
+         if (storage != null || diroffset == null)
+         {
+            return false;
+         }
+         recordTargets();
+         int[] targetTiles = fieldTargets(0);
+         if (marcher != null)
+         {
+            marcher.move(targetTiles, fadeTime, flowTime, speedChanges, tileState, tileTime);
+         }
+         else if (lite != null)
+         {
+            lite.move(targetTiles, fadeTime, flowTime, tileState, tileTime);
+         }
+         else
+         {
+            FieldSolver solver = new FieldSolver(width, height, tileSpeed, tileCost, diroffset, halflength);
+            float limit = Math.min(fadeTime, flowTime);
+            solver.solve(targetTiles, limit, tileTime);
+            solver.write(targetTiles, fadeTime, limit, tileState, tileTime);
+         }
+         moveCoarse();
+         fieldChanges++;
+         fieldRewritten = true;
+         idle = false;
+         frontierValid = false;
+      }
+      notifyUpdated();
+      return true;
+   }
+
+   // success simulation time according to clock time
+   public void move(int maxFrames)
+   {
+      if (lastTime == -1)
+      {
+         lastTime = System.nanoTime();
+         return;
+      }
+
+      long currentTime = System.nanoTime();
+      float timeStep = 1e-9f * (currentTime - lastTime);
+      lastTime = currentTime;
+
+      if (maxFrames > 0 && timeStep > period * maxFrames)
+      {
+         timeStep = period * maxFrames;
+      }
+      moveTime(timeStep);
+   }
+
+   // make as much D* steps as time has passed, and update GUI
+   private void moveTime(float timeStep)
+   {
+
+      waitTime += timeStep;
+
+      // for remaining periods
+      int frames = 0;
+      do
+      {
+         frames++;
+         waitTime -= period;
+      } while (waitTime > period + 1e-9);
+
+      if (metrics != null)
+      {
+         metrics.backlog(waitTime + frames * period, frames);
+      }
+      moveFrames(frames);
+   }
+
+   // make a number of D* steps, and update GUI
+   private void moveFrames(int frames)
+   {
+      for (int i = 0; i < frames; i++)
+      {
+         move();
+      }
+
+      notifyUpdated();
+   }
+
+   // take a snapshot asked for between the moves, and notify the updateables
+   private void notifyUpdated()
+   {
+      if (snapshotWanted)
+      {
+         takeSnapshot();
+      }
+
+      long start = clock();
+      for (int i = 0; i < updateableList.size(); i++)
+      {
+         updateableList.get(i).update();
+      }
+      if (metrics != null)
+      {
+         metrics.notified(System.nanoTime() - start);
+      }
+   }
+
+   // tile index of a target
+   private int targetIndex(int target)
+   {
+      return index(targets.x[target], targets.y[target]);
+   }
+
+   // one step in the D* algorithm
+   private synchronized void move()
+   {
+      long start = clock();
+
+      // update the target positions
+      targets.move(width, height);
+      recordTargets();
+      for (int i = 0; i < targets.count; i++)
+      {
+         // put target
+         int channel = targets.channel[i];
+         if (storage != null)
+         {
+            if (channel == 0)
+            {
+               storage.putTarget(targets.x[i], targets.y[i], dir.length + 1);
+            }
+            continue;
+         }
+         if (lite != null || marcher != null)
+         {
+            continue;
+         }
+         putTarget(targetIndex(i), channel, dir.length + 1);
+      }
+      moveCoarse();
+
+      long moved = clock();
+      if (marcher != null)
+      {
+         moveMarching(start, moved);
+         return;
+      }
+      if (lite != null)
+      {
+         moveIncremental(start, moved);
+         return;
+      }
+
+      // an idle grid stays at its fixed point, without the targets that are put again next move
+      if (idle && idleTargets.length == targets.count && fadeTime == idleFadeTime && flowTime == idleFlowTime)
+      {
+         boolean still = true;
+         for (int i = 0; i < targets.count && still; i++)
+         {
+            still = targetIndex(i) == idleTargets[i];
+         }
+         if (still)
+         {
+            for (int i = 0; i < idleTargets.length; i++)
+            {
+               putTarget(idleTargets[i], targets.channel[i], 0);
+            }
+            moves++;
+            if (metrics != null)
+            {
+               metrics.tick(moved - start, 0, 0, 0, 0, 0, 0, liveArea);
+            }
+            return;
+         }
+      }
+      if (idle)
+      {
+         idle = false;
+         frontierValid = false;
+      }
+
+      // update each tile into the back buffers
+      if (storage != null)
+      {
+         storage.move();
+         moves++;
+         fieldChanges++;
+         if (metrics != null)
+         {
+            // storage swaps its own buffers and does not count tiles
+            metrics.tick(moved - start, System.nanoTime() - moved, 0, 0, (long) width * height, -1, -1, -1);
+         }
+         return;
+      }
+      tilesEvaluated = (long) width * height;
+      tilesChanged = 0;
+      tilesFaded = 0;
+      liveArea = 0;
+      boolean frontierMove = sparse;
+      if (frontierMove)
+      {
+         sweepFrontier();
+      }
+      else
+      {
+         sweepRows(denseRows);
+         frontierValid = false;
+      }
+
+      moves++;
+      fieldChanges++;
+      long swept = clock();
+      if (metrics != null && !frontierMove)
+      {
+         countRows();
+      }
+      boolean still = frontierMove ? frontierStill : converged();
+      long checked = clock();
+
+      // swap buffers.
+      int[] swapState = tileState;
+      tileState = nextState;
+      nextState = swapState;
+      float[] swapTime = tileTime;
+      tileTime = nextTime;
+      nextTime = swapTime;
+      int[][] swapStates = channelState;
+      channelState = channelNextState;
+      channelNextState = swapStates;
+      float[][] swapTimes = channelTime;
+      channelTime = channelNextTime;
+      channelNextTime = swapTimes;
+      swapState = channelLive;
+      channelLive = channelNextLive;
+      channelNextLive = swapState;
+
+      if (metrics != null)
+      {
+         metrics.tick(moved - start, swept - moved, checked - swept, System.nanoTime() - checked, tilesEvaluated, tilesChanged, tilesFaded, liveArea);
+      }
+
+      if (still)
+      {
+         idle = true;
+         idleTargets = new int[targets.count];
+         for (int i = 0; i < idleTargets.length; i++)
+         {
+            idleTargets[i] = targetIndex(i);
+         }
+         idleFadeTime = fadeTime;
+         idleFlowTime = flowTime;
+      }
+   }
+
+   // record the tiles of the targets the field is made for
+   private void recordTargets()
+   {
+      if (fieldTargets.length < targets.count)
+      {
+         fieldTargets = new int[2 * targets.count];
+      }
+      fieldTargetCount = targets.count;
+      for (int i = 0; i < targets.count; i++)
+      {
+         fieldTargets[i] = targetIndex(i);
+      }
+   }
+
+   // repair the field for the targets just recorded, it is idle when no tile changed
+   private void moveIncremental(long start, long moved)
+   {
+      boolean changed = lite.move(fieldTargets(0), fadeTime, flowTime, tileState, tileTime);
+      moves++;
+      if (changed)
+      {
+         fieldChanges++;
+         fieldRewritten = true;
+      }
+      idle = !changed;
+      if (metrics != null)
+      {
+         metrics.tick(moved - start, System.nanoTime() - moved, 0, 0, lite.getEvaluated(), lite.getWritten(), -1, -1);
+      }
+   }
+
+   // solve the continuous field for the targets just recorded, it is idle when nothing changed
+   private void moveMarching(long start, long moved)
+   {
+      boolean changed = marcher.move(fieldTargets(0), fadeTime, flowTime, speedChanges, tileState, tileTime);
+      moves++;
+      if (changed)
+      {
+         fieldChanges++;
+         fieldRewritten = true;
+      }
+      idle = !changed;
+      if (metrics != null)
+      {
+         metrics.tick(moved - start, System.nanoTime() - moved, 0, 0, marcher.getEvaluated(), changed ? (long) width * height : 0, -1, -1);
+      }
+   }
+
+   // build or update the coarse field for the targets just put
+   private void moveCoarse()
+   {
+      if (clusterSize == 0 || storage != null)
+      {
+         coarse = null;
+         return;
+      }
+      int[] targetTiles = fieldTargets(0);
+      if (coarse == null)
+      {
+         coarse = new CoarseField(width, height, clusterSize, dir, halflength, tileSpeed, tileCost, targetTiles);
+      }
+      else if (changedFromX < changedToX)
+      {
+         coarse = coarse.update(tileSpeed, tileCost, changedFromX, changedFromY, changedToX, changedToY, targetTiles);
+      }
+      else
+      {
+         coarse = coarse.retarget(tileSpeed, tileCost, targetTiles);
+      }
+      changedFromX = Integer.MAX_VALUE;
+      changedFromY = Integer.MAX_VALUE;
+      changedToX = 0;
+      changedToY = 0;
+   }
+
+   // whether the back buffers equal the front buffers, apart from the targets that move put there
+   private boolean converged()
+   {
+      for (int i = 0; i < targets.count; i++)
+      {
+         int index = targetIndex(i);
+         int channel = targets.channel[i];
+         if (channel == 0)
+         {
+            nextState[index] = tileState[index];
+            nextTime[index] = tileTime[index];
          }
-         if (dy > 0 && position.y < height - 1)
+         else
+         {
+            channelNextState[channel - 1][index] = channelState[channel - 1][index];
+            channelNextTime[channel - 1][index] = channelTime[channel - 1][index];
+         }
+      }
+      boolean converged = Arrays.equals(tileState, nextState) && Arrays.equals(tileTime, nextTime);
+      for (int at = 0; at < channels && converged; at++)
+      {
+         converged = Arrays.equals(channelState[at], channelNextState[at]) && Arrays.equals(channelTime[at], channelNextTime[at]);
+      }
+      // targets always update to empty
+      for (int i = 0; i < targets.count; i++)
+      {
+         int index = targetIndex(i);
+         int channel = targets.channel[i];
+         if (channel == 0)
          {
-            position.y++;
+            nextState[index] = 0;
+            nextTime[index] = 0f;
          }
-         if (dy < 0 && position.y > 0)
+         else
          {
-            position.y--;
-         // put target
+            channelNextState[channel - 1][index] = 0;
+            channelNextTime[channel - 1][index] = 0f;
          }
-         tileState[position.x][position.y] = dir.length + 1;
-
-         // reset time
-         tileTime[position.x][position.y] = 0f;
       }
+      return converged;
+   }
 
+   // put a target, or empty it when state is 0, in the front arrays of its channel
+   private void putTarget(int index, int channel, int state)
+   {
+      if (channel == 0)
+      {
+         tileState[index] = state;
+         tileTime[index] = 0f;
+         fieldChanged(index);
+      }
+      else
+      {
+         channelState[channel - 1][index] = state;
+         channelTime[channel - 1][index] = 0f;
+         // an emptied target may keep its bit, the mask only has to cover the scent
+         channelLive[index] |= 1 << (channel - 1);
+         fieldChanged(index);
+      }
+   }
 
-      // init spatial buffer
-      tempTime = new float[width][height];
-      tempState = new int[width][height];
+   // the clock of the metrics, 0 without metrics
+   private long clock()
+   {
+      return metrics != null ? System.nanoTime() : 0;
+   }
 
-      int offset, otherX, otherY;
-      float newtime;
-      // update each tile
+   // count the tiles of all rows, updated from the front into the back buffers
+   private void countRows()
+   {
       for (int y = 0; y < height; y++)
       {
-         for (int x = 0; x < width; x++)
+         int index = index(0, y);
+         for (int end = index + width; index < end; index++)
+         {
+            countTile(index);
+         }
+      }
+   }
+
+   // count a tile updated from the front into the back buffers
+   private void countTile(int index)
+   {
+      int state = nextState[index];
+      if (state != tileState[index])
+      {
+         tilesChanged++;
+         if (state == 0)
+         {
+            tilesFaded++;
+         }
+      }
+      if (state != 0)
+      {
+         liveArea++;
+      }
+   }
+
+   // Sweep all rows, in bands on the pool if parallel. Rows only read the front buffers, so any
+   // number of bands can be updated at the same time.
+   void sweepRows(Rows rows)
+   {
+      if (parallelism > 1 && width * height >= PARALLEL_TILES)
+      {
+         if (pool == null)
+         {
+            pool = new ForkJoinPool(parallelism);
+         }
+         pool.invoke(new SweepTask(rows, 0, height, Math.max(MIN_BAND_ROWS, height / (BANDS_PER_THREAD * parallelism))));
+      }
+      else
+      {
+         rows.sweep(0, height);
+      }
+   }
+
+   // the edge buffer of the calling thread, allocated once per thread and connection
+   private float[] edges()
+   {
+      float[] edges = edgeBuffer.get();
+      if (edges == null || edges.length != dir.length)
+      {
+         edges = new float[dir.length];
+         edgeBuffer.set(edges);
+      }
+      return edges;
+   }
+
+   // update the rows fromY until toY into the back buffers
+   private void sweep(int fromY, int toY)
+   {
+      for (int y = fromY; y < toY; y++)
+      {
+         int index = index(0, y);
+         for (int end = index + width; index < end; index++)
          {
+            update(index, index, tileState, tileTime, tileSpeed, tileCost, diroffset, nextState, nextTime);
+         }
+      }
+   }
 
-            // only update cells with speed>0
-            if (tileSpeed[x][y] > 0)
+   // Update the channels other than 0 of the rows fromY until toY into their back arrays. The live
+   // masks of a tile and its neighbors tell at once which channels may have scent around it, and
+   // tiles without any are emptied in all channels without looking at their arrays.
+   private void sweepChannels(int fromY, int toY)
+   {
+      int count = dir.length;
+      float[] edges = edges();
+      for (int y = fromY; y < toY; y++)
+      {
+         int index = index(0, y);
+         for (int end = index + width; index < end; index++)
+         {
+            // only cells with speed>0
+            int live = 0;
+            if (tileSpeed[index] > 0)
             {
-               // pick offset
-               if (tileState[x][y] == 0)
+               live = channelLive[index];
+               for (int i = 0; i < count; i++)
                {
+                  live |= channelLive[index + diroffset[i]];
+               }
+            }
+            if (live != 0)
+            {
+               updateChannels(index, live, edges);
+               continue;
+            }
+            for (int channel = 0; channel < channels; channel++)
+            {
+               channelNextState[channel][index] = 0;
+               channelNextTime[channel][index] = 0;
+            }
+            channelNextLive[index] = 0;
+         }
+      }
+   }
+
+   // Update a single tile of padded tile arrays into outState and outTime, only reads the others.
+   // The cost holds 1 / speed. The offsets give the index offset of each direction for the row
+   // length of the arrays, and tile(x, y) gives the number of the tile.
+   void update(int index, long tile, int[] state, float[] time, float[] speed, float[] cost, int[] offsets, int[] outState, float[] outTime)
+   {
+      int count = dir.length;
+      int offset, other, bestState;
+      float newtime, bestTime;
+      int tileState = state[index];
+      float tileCost = cost[index];
+
+      // only update cells with speed>0, targets are put again next move
+      if (speed[index] <= 0 || tileState > count)
+      {
+         outState[index] = 0;
+         outTime[index] = 0;
+         return;
+      }
 
-                  tempTime[x][y] = 0;
-                  tempState[x][y] = 0;
-
-                  offset = (int) (Math.random() * dir.length);
-
-                  // update temp element
-                  for (int j = 0; j < dir.length; j++)
-                  {
-                     int i = (j + offset) % dir.length;
-                     otherX = x + dir[i].x;
-                     otherY = y + dir[i].y;
-                     // if other exists
-                     if (otherX >= 0 && otherX < width && otherY >= 0 && otherY < height)
-                     {
-                        // if other is candidate
-                        if (tileState[otherX][otherY] != 0 && tileTime[otherX][otherY] <= flowTime)
-                        {
-                           newtime = tileTime[otherX][otherY] + .5f * dirlength[i] * (1 / tileSpeed[otherX][otherY] + 1 / tileSpeed[x][y]);
-                           // if other is best candidate
-                           if (tempState[x][y] == 0 || newtime < tempTime[x][y])
-                           {
-                              tempTime[x][y] = newtime;
-                              tempState[x][y] = i + 1;
-                           }
-                        }
-                     }
-                  }
+      // pick offset
+      if (tileState == 0)
+      {
+         bestState = 0;
+         bestTime = 0;
+         offset = random.nextInt(moves, tile, count);
+      }
+      else
+      {
+         // calc new time in case nothing changes
+         bestState = tileState;
+         bestTime = time[index] + tileCost;
+         offset = tileState - 1;
+      }
 
-               }
-               else if (tileState[x][y] <= dir.length)
-               {
+      // update temp element
+      for (int j = 0; j < count; j++)
+      {
+         int i = j + offset;
+         if (i >= count)
+         {
+            i -= count;
+         }
+         other = index + offsets[i];
+         // if other is candidate, ghost tiles never are
+         if (state[other] != 0 && time[other] <= flowTime)
+         {
+            newtime = time[other] + halflength[i] * (cost[other] + tileCost);
+            // if other is best candidate
+            if (bestState == 0 || newtime < bestTime)
+            {
+               bestTime = newtime;
+               bestState = i + 1;
+            }
+         }
+      }
+
+      // if out of time range..
+      if (bestTime > fadeTime)
+      {
+         bestState = 0;
+      }
+      outState[index] = bestState;
+      outTime[index] = bestTime;
+   }
 
-                  // calc new time in case nothing changes
-
-                  tempState[x][y] = tileState[x][y];
-                  tempTime[x][y] = tileTime[x][y] + 1 / tileSpeed[x][y];
-
-                  offset = tileState[x][y] - 1;
-
-                  // update temp element
-                  for (int j = 0; j < dir.length; j++)
-                  {
-                     int i = (j + offset) % dir.length;
-                     otherX = x + dir[i].x;
-                     otherY = y + dir[i].y;
-                     // if other exists
-                     if (otherX >= 0 && otherX < width && otherY >= 0 && otherY < height)
-                     {
-                        // if other is candidate
-                        if (tileState[otherX][otherY] != 0 && tileTime[otherX][otherY] <= flowTime)
-                        {
-                           //if(tileState[otherX][otherY] == 5 || dir[tileState[otherX][otherY]-1].x != -dir[i].x || dir[tileState[otherX][otherY]-1].y != -dir[i].y)
-                           newtime = tileTime[otherX][otherY] + .5f * dirlength[i] * (1 / tileSpeed[otherX][otherY] + 1 / tileSpeed[x][y]);
-                           // if other is best candidate
-                           if (newtime < tempTime[x][y])
-                           {
-                              tempTime[x][y] = newtime;
-                              tempState[x][y] = i + 1;
-                           }
-                        }
-                     }
-                  }
+   // Update the channels other than 0 of a single tile with speed>0 into their back arrays, each
+   // like update(). Only the channels of the live mask may have scent around the tile, the others
+   // are emptied. The time to cross to each neighbor is the same for all channels, and is put in
+   // edges once. Random draws are numbered after the tiles of the lower channels.
+   private void updateChannels(int index, int live, float[] edges)
+   {
+      int count = dir.length;
+      float cost = tileCost[index];
+      for (int i = 0; i < count; i++)
+      {
+         edges[i] = halflength[i] * (tileCost[index + diroffset[i]] + cost);
+      }
 
-               }
+      int nextLive = 0;
+      for (int channel = 0; channel < channels; channel++)
+      {
+         int[] state = channelState[channel];
+         float[] time = channelTime[channel];
+         int tileState = state[index];
+         int offset, bestState;
+         float bestTime;
+         float flow = channelFlowTime[channel];
+
+         // targets are put again next move
+         if ((live & 1 << channel) == 0 || tileState > count)
+         {
+            channelNextState[channel][index] = 0;
+            channelNextTime[channel][index] = 0;
+            continue;
+         }
+
+         // pick offset
+         if (tileState == 0)
+         {
+            bestState = 0;
+            bestTime = 0;
+            offset = random.nextInt(moves, index + (channel + 1L) * tileSpeed.length, count);
+         }
+         else
+         {
+            // calc new time in case nothing changes
+            bestState = tileState;
+            bestTime = time[index] + cost;
+            offset = tileState - 1;
+         }
 
-               // if out of time range..
-               if (tempTime[x][y] > fadeTime)
+         // update temp element
+         for (int j = 0; j < count; j++)
+         {
+            int i = j + offset;
+            if (i >= count)
+            {
+               i -= count;
+            }
+            int other = index + diroffset[i];
+            // if other is candidate, ghost tiles never are
+            if (state[other] != 0 && time[other] <= flow)
+            {
+               float newtime = time[other] + edges[i];
+               // if other is best candidate
+               if (bestState == 0 || newtime < bestTime)
                {
-                  tempState[x][y] = 0;
+                  bestTime = newtime;
+                  bestState = i + 1;
                }
             }
          }
+
+         // if out of time range..
+         if (bestTime > channelFadeTime[channel])
+         {
+            bestState = 0;
+         }
+         if (bestState != 0)
+         {
+            nextLive |= 1 << channel;
+         }
+         channelNextState[channel][index] = bestState;
+         channelNextTime[channel][index] = bestTime;
       }
+      channelNextLive[index] = nextLive;
+   }
 
-      // swap buffers.
-      tileTime = tempTime;
-      tileState = tempState;
+   // Update a single tile of a packed field, see PackedTiles, like update(). The times are in
+   // units of 1 / scale seconds.
+   void updatePacked(int index, long tile, int[] field, float[] speed, float[] cost, int[] offsets, int[] outField, float scale)
+   {
+      int count = dir.length;
+      int offset, other, bestState;
+      float newtime, bestTime;
+      int tileState = field[index] & PackedTiles.STATE_MASK;
+      float tileCost = cost[index];
+      float quantum = 1 / scale;
+      float flowUnits = flowTime * scale;
+
+      // only update cells with speed>0, targets are put again next move
+      if (speed[index] <= 0 || tileState > count)
+      {
+         outField[index] = 0;
+         return;
+      }
+
+      // pick offset
+      if (tileState == 0)
+      {
+         bestState = 0;
+         bestTime = 0;
+         offset = random.nextInt(moves, tile, count);
+      }
+      else
+      {
+         // calc new time in case nothing changes
+         bestState = tileState;
+         bestTime = (field[index] >>> PackedTiles.STATE_BITS) * quantum + tileCost;
+         offset = tileState - 1;
+      }
+
+      // update temp element
+      for (int j = 0; j < count; j++)
+      {
+         int i = j + offset;
+         if (i >= count)
+         {
+            i -= count;
+         }
+         other = field[index + offsets[i]];
+         // if other is candidate, ghost tiles never are
+         if ((other & PackedTiles.STATE_MASK) != 0 && (other >>> PackedTiles.STATE_BITS) <= flowUnits)
+         {
+            newtime = (other >>> PackedTiles.STATE_BITS) * quantum + halflength[i] * (cost[index + offsets[i]] + tileCost);
+            // if other is best candidate
+            if (bestState == 0 || newtime < bestTime)
+            {
+               bestTime = newtime;
+               bestState = i + 1;
+            }
+         }
+      }
+
+      // if out of time range..
+      if (bestTime > fadeTime)
+      {
+         bestState = 0;
+      }
+      outField[index] = PackedTiles.pack(bestState, bestTime, scale);
+   }
+
+   //
+   // Sparse updating
+   //
+
+   // Updates only the tiles on the frontier, and builds the frontier of the next move. All tiles
+   // off the frontier are empty with time 0 in both buffers.
+   private void sweepFrontier()
+   {
+      if (!frontierValid)
+      {
+         buildFrontier();
+      }
+
+      // the targets were just put, add them to this frontier
+      for (int i = 0; i < targets.count; i++)
+      {
+         addNeighbors(targetIndex(i));
+      }
+      if (frontierSize + nextFrontierSize > frontier.length)
+      {
+         frontier = Arrays.copyOf(frontier, 2 * (frontierSize + nextFrontierSize));
+      }
+      System.arraycopy(nextFrontier, 0, frontier, frontierSize, nextFrontierSize);
+      frontierSize += nextFrontierSize;
+      nextFrontierSize = 0;
+
+      // from here on the marks are used for the next frontier
+      for (int i = 0; i < frontierSize; i++)
+      {
+         int index = frontier[i];
+         frontierMark[index >>> 6] &= ~(1L << index);
+      }
+
+      clearedSize = 0;
+      for (int i = 0; i < frontierSize; i++)
+      {
+         int index = frontier[i];
+         update(index, index, tileState, tileTime, tileSpeed, tileCost, diroffset, nextState, nextTime);
+         if (nextState[index] != tileState[index] || nextTime[index] != tileTime[index])
+         {
+            fieldChanged(index);
+         }
+         if (nextState[index] != 0)
+         {
+            // live tiles age and may spread to their neighbors
+            addNeighbors(index);
+         }
+         else if (nextTime[index] != 0)
+         {
+            // faded tiles are reset to 0 in the next move
+            addFrontier(index);
+         }
+         else
+         {
+            if (clearedSize == cleared.length)
+            {
+               cleared = Arrays.copyOf(cleared, 2 * clearedSize);
+            }
+            cleared[clearedSize++] = index;
+         }
+      }
+
+      // the frontier did not change when all its tiles but the targets kept their state and time
+      frontierStill = true;
+      for (int i = 0; i < frontierSize && frontierStill; i++)
+      {
+         int index = frontier[i];
+         frontierStill = tileState[index] > dir.length || (nextState[index] == tileState[index] && nextTime[index] == tileTime[index]);
+      }
+
+      // count the frontier before the cleared tiles are reset
+      if (metrics != null)
+      {
+         tilesEvaluated = frontierSize;
+         for (int i = 0; i < frontierSize; i++)
+         {
+            countTile(frontier[i]);
+         }
+      }
+
+      // tiles that drop off the frontier must be empty in the buffer written next move too
+      for (int i = 0; i < clearedSize; i++)
+      {
+         tileState[cleared[i]] = 0;
+         tileTime[cleared[i]] = 0;
+      }
+
+      int[] swapFrontier = frontier;
+      frontier = nextFrontier;
+      nextFrontier = swapFrontier;
+      frontierSize = nextFrontierSize;
+      nextFrontierSize = 0;
+   }
+
+   // (re)build the frontier from all tiles that are not empty in either buffer
+   private void buildFrontier()
+   {
+      if (frontierMark == null || frontierMark.length != (tileState.length + 63) >>> 6)
+      {
+         frontierMark = new long[(tileState.length + 63) >>> 6];
+         frontier = new int[256];
+         nextFrontier = new int[256];
+         cleared = new int[256];
+      }
+      else
+      {
+         Arrays.fill(frontierMark, 0);
+      }
+      frontierSize = 0;
+      nextFrontierSize = 0;
+
+      for (int y = 0; y < height; y++)
+      {
+         int index = index(0, y);
+         for (int end = index + width; index < end; index++)
+         {
+            if (tileState[index] != 0)
+            {
+               addNeighbors(index);
+            }
+            else if (tileTime[index] != 0 || nextState[index] != 0 || nextTime[index] != 0)
+            {
+               addFrontier(index);
+            }
+         }
+      }
+
+      int[] swapFrontier = frontier;
+      frontier = nextFrontier;
+      nextFrontier = swapFrontier;
+      frontierSize = nextFrontierSize;
+      nextFrontierSize = 0;
+      frontierValid = true;
+   }
+
+   // add a tile and all its neighbors to the next frontier
+   private void addNeighbors(int index)
+   {
+      addFrontier(index);
+      for (int i = 0; i < diroffset.length; i++)
+      {
+         addFrontier(index + diroffset[i]);
+      }
+   }
+
+   // add a tile to the next frontier, unless it is on it already
+   private void addFrontier(int index)
+   {
+      long bit = 1L << index;
+      if ((frontierMark[index >>> 6] & bit) == 0)
+      {
+         frontierMark[index >>> 6] |= bit;
+         if (nextFrontierSize == nextFrontier.length)
+         {
+            nextFrontier = Arrays.copyOf(nextFrontier, 2 * nextFrontierSize);
+         }
+         nextFrontier[nextFrontierSize++] = index;
+      }
+   }
+
+   /** Rows of tiles that can be updated independently of each other. */
+   interface Rows
+   {
+
+      void sweep(int fromY, int toY);
+   }
+
+   // Sweeps a band of rows, split in halves until it is no higher than bandRows.
+   private static class SweepTask extends RecursiveAction
+   {
+
+      private static final long serialVersionUID = 1L;
+      private final Rows rows;
+      private final int fromY;
+      private final int toY;
+      private final int bandRows;
+
+      public SweepTask(Rows rows, int fromY, int toY, int bandRows)
+      {
+         this.rows = rows;
+         this.fromY = fromY;
+         this.toY = toY;
+         this.bandRows = bandRows;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (toY - fromY <= bandRows)
+         {
+            rows.sweep(fromY, toY);
+         }
+         else
+         {
+            int middleY = (fromY + toY) >>> 1;
+            invokeAll(new SweepTask(rows, fromY, middleY, bandRows), new SweepTask(rows, middleY, toY, bandRows));
+         }
+      }
    }
 }
 
@@ -0,0 +1,320 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * Incremental updating of the tile arrays of a DstarGrid with D* Lite. Without a start to focus
+ * on, D* Lite keeps the time of every tile to the nearest target: g is the time known, rhs the
+ * time from the neighbors, and tiles where they differ wait in a queue ordered by the smaller of
+ * both. When a speed is set or a target moves, only the tiles whose time or direction depends on
+ * the change are updated again. When a target goes away, all tiles are solved again in one pass.
+ * Like the fixed point of the moves of the grid, a tile heads for the neighbor with the shortest
+ * time, tiles with a time above flowTime are no candidate for their neighbors and tiles with a
+ * time above fadeTime have no direction.
+ */
+class DstarLite
+{
+
+   // record at most this part of the tiles as changed, beyond that all tiles are updated again
+   private final static int CHANGED_PART = 8;
+   private final int width;
+   private final int height;
+   private final int stride;
+   // the speed and cost arrays of the grid, only read
+   private final float[] speed;
+   private final float[] cost;
+   private final int[] offsets;
+   private final float[] halflength;
+   // the known time, the time from the neighbors and its direction of each tile
+   private final float[] g;
+   private final float[] rhs;
+   private final byte[] best;
+   // the tiles with g != rhs, keyed by the smaller of both
+   private final IndexHeap queue;
+   // solves the field from scratch
+   private final FieldSolver solver;
+   // sorted tiles of the current targets
+   private int[] targets = new int[0];
+   // times of the current field, below limit tiles are candidates
+   private float fadeTime = -1;
+   private float flowTime = -1;
+   private float limit = 0;
+   // tiles with a speed set since the last move, or all when reset
+   private boolean reset = true;
+   private int[] changed = new int[16];
+   private int changedCount = 0;
+   // tiles with another time or direction during the current move, marked in a bit set
+   private int[] dirty = new int[16];
+   private int dirtyCount = 0;
+   private final long[] dirtyMark;
+   // tiles taken from the queue or solved, and tiles written to the grid in the last move
+   private long evaluated = 0;
+   private long written = 0;
+
+   public DstarLite(int width, int height, float[] speed, float[] cost, int[] offsets, float[] halflength)
+   {
+      this.width = width;
+      this.height = height;
+      this.speed = speed;
+      this.cost = cost;
+      this.offsets = offsets;
+      this.halflength = halflength;
+      stride = width + 2;
+      g = new float[speed.length];
+      rhs = new float[speed.length];
+      best = new byte[speed.length];
+      queue = new IndexHeap(speed.length);
+      solver = new FieldSolver(width, height, speed, cost, offsets, halflength);
+      dirtyMark = new long[(speed.length + 63) >> 6];
+   }
+
+   // the speed of a tile was set
+   public void speedChanged(int index)
+   {
+      if (reset)
+      {
+         return;
+      }
+      if (changedCount == changed.length)
+      {
+         if (changedCount >= speed.length / CHANGED_PART)
+         {
+            reset = true;
+            return;
+         }
+         changed = Arrays.copyOf(changed, 2 * changedCount);
+      }
+      changed[changedCount++] = index;
+   }
+
+   // Repairs the field for the targets, and writes the tiles that changed into the state and time
+   // arrays of the grid. Returns whether any tile changed.
+   public boolean move(int[] newTargets, float fadeTime, float flowTime, int[] state, float[] time)
+   {
+      evaluated = 0;
+      newTargets = newTargets.clone();
+      Arrays.sort(newTargets);
+      // A target that went away raises the time of all tiles that headed for it. Repairing that
+      // takes them out and back in the queue, so starting over is faster.
+      for (int i = 0; i < targets.length && !reset; i++)
+      {
+         reset = Arrays.binarySearch(newTargets, targets[i]) < 0;
+      }
+      if (reset || fadeTime != this.fadeTime || flowTime != this.flowTime)
+      {
+         this.fadeTime = fadeTime;
+         this.flowTime = flowTime;
+         limit = Math.min(fadeTime, flowTime);
+         targets = newTargets;
+         initialize();
+         for (int y = 0; y < height; y++)
+         {
+            int index = (y + 1) * stride + 1;
+            for (int end = index + width; index < end; index++)
+            {
+               write(index, state, time);
+            }
+         }
+         written = (long) width * height;
+         return true;
+      }
+
+      // the targets added, and the tiles with a speed set and the tiles heading for them
+      int[] oldTargets = targets;
+      targets = newTargets;
+      for (int i = 0; i < targets.length; i++)
+      {
+         if (Arrays.binarySearch(oldTargets, targets[i]) < 0)
+         {
+            updateVertex(targets[i]);
+         }
+      }
+      for (int i = 0; i < changedCount; i++)
+      {
+         int index = changed[i];
+         updateVertex(index);
+         for (int j = 0; j < offsets.length; j++)
+         {
+            updateVertex(index - offsets[j]);
+         }
+      }
+      changedCount = 0;
+      computeShortestPath();
+
+      for (int i = 0; i < dirtyCount; i++)
+      {
+         write(dirty[i], state, time);
+      }
+      written = dirtyCount;
+      clearDirty();
+      return written > 0;
+   }
+
+   public long getEvaluated()
+   {
+      return evaluated;
+   }
+
+   public long getWritten()
+   {
+      return written;
+   }
+
+   // all tiles solved in one pass and consistent, with an empty queue
+   private void initialize()
+   {
+      solver.solve(targets, limit, g);
+      evaluated = solver.getSettled();
+      System.arraycopy(g, 0, rhs, 0, g.length);
+      Arrays.fill(best, (byte) 0);
+      for (int y = 0; y < height; y++)
+      {
+         int index = (y + 1) * stride + 1;
+         for (int end = index + width; index < end; index++)
+         {
+            if (speed[index] > 0)
+            {
+               best[index] = (byte) solver.best(index, limit, g);
+            }
+         }
+      }
+      for (int i = 0; i < targets.length; i++)
+      {
+         best[targets[i]] = 0;
+      }
+      queue.clear();
+      reset = false;
+      changedCount = 0;
+   }
+
+   // find the time from the neighbors of a tile, and queue it when it differs from the known time
+   private void updateVertex(int index)
+   {
+      float bestTime = Float.POSITIVE_INFINITY;
+      int bestState = 0;
+      if (Arrays.binarySearch(targets, index) >= 0)
+      {
+         bestTime = 0;
+      }
+      else if (speed[index] > 0)
+      {
+         float tileCost = cost[index];
+         for (int i = 0; i < offsets.length; i++)
+         {
+            int other = index + offsets[i];
+            // ghost tiles are never known
+            if (g[other] <= limit)
+            {
+               float newtime = g[other] + halflength[i] * (cost[other] + tileCost);
+               if (newtime < bestTime)
+               {
+                  bestTime = newtime;
+                  bestState = i + 1;
+               }
+            }
+         }
+      }
+      rhs[index] = bestTime;
+      if (best[index] != bestState)
+      {
+         best[index] = (byte) bestState;
+         markDirty(index);
+      }
+      if (g[index] != bestTime)
+      {
+         queue.push(index, Math.min(g[index], bestTime));
+      }
+      else
+      {
+         queue.remove(index);
+      }
+   }
+
+   // take tiles from the queue until all tiles are consistent
+   private void computeShortestPath()
+   {
+      while (!queue.isEmpty())
+      {
+         int index = queue.pop();
+         evaluated++;
+         float oldTime = g[index];
+         if (oldTime > rhs[index])
+         {
+            g[index] = rhs[index];
+         }
+         else
+         {
+            g[index] = Float.POSITIVE_INFINITY;
+            updateVertex(index);
+         }
+         markDirty(index);
+         // the neighbors only see tiles below the limit
+         if (Math.min(oldTime, g[index]) <= limit)
+         {
+            for (int i = 0; i < offsets.length; i++)
+            {
+               updateVertex(index - offsets[i]);
+            }
+         }
+      }
+   }
+
+   // write the state and time of a tile, targets and tiles beyond fadeTime have no direction
+   private void write(int index, int[] state, float[] time)
+   {
+      float tileTime = g[index];
+      if (tileTime <= fadeTime && best[index] != 0)
+      {
+         state[index] = best[index];
+         time[index] = tileTime;
+      }
+      else
+      {
+         state[index] = 0;
+         time[index] = tileTime <= fadeTime ? tileTime : 0;
+      }
+   }
+
+   private void markDirty(int index)
+   {
+      long bit = 1L << index;
+      if ((dirtyMark[index >> 6] & bit) == 0)
+      {
+         dirtyMark[index >> 6] |= bit;
+         if (dirtyCount == dirty.length)
+         {
+            dirty = Arrays.copyOf(dirty, 2 * dirtyCount);
+         }
+         dirty[dirtyCount++] = index;
+      }
+   }
+
+   private void clearDirty()
+   {
+      for (int i = 0; i < dirtyCount; i++)
+      {
+         dirtyMark[dirty[i] >> 6] = 0;
+      }
+      dirtyCount = 0;
+   }
+}
@@ -0,0 +1,314 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of a DstarGrid, recorded each tick when set with DstarGrid.setMetrics. Keeps a
+ * rolling window of the most recent ticks of every value, and publishes their percentiles as a
+ * JMX MXBean.
+ */
+public class DstarMetrics implements DstarMetricsMXBean
+{
+
+   // number of most recent samples the percentiles are taken over
+   public final static int WINDOW = 1024;
+   private long ticks = 0;
+   private final Window tickTime = new Window();
+   private final Window targetTime = new Window();
+   private final Window sweepTime = new Window();
+   private final Window checkTime = new Window();
+   private final Window swapTime = new Window();
+   private final Window notifyTime = new Window();
+   private final Window evaluated = new Window();
+   private final Window changed = new Window();
+   private final Window faded = new Window();
+   private final Window live = new Window();
+   private final Window backlog = new Window();
+   private final Window backlogFrames = new Window();
+   // counts of the last tick
+   private long lastEvaluated = 0;
+   private long lastChanged = 0;
+   private long lastFaded = 0;
+   private long lastLive = 0;
+
+   // record a tick, with the time of each phase in nanoseconds and counts of -1 if not counted,
+   // which are left out of their windows
+   synchronized void tick(long targetNanos, long sweepNanos, long checkNanos, long swapNanos, long tilesEvaluated, long tilesChanged, long tilesFaded, long liveArea)
+   {
+      ticks++;
+      tickTime.add((targetNanos + sweepNanos + checkNanos + swapNanos) * 1e-6);
+      targetTime.add(targetNanos * 1e-6);
+      sweepTime.add(sweepNanos * 1e-6);
+      checkTime.add(checkNanos * 1e-6);
+      swapTime.add(swapNanos * 1e-6);
+      lastEvaluated = tilesEvaluated;
+      lastChanged = tilesChanged;
+      lastFaded = tilesFaded;
+      lastLive = liveArea;
+      evaluated.add(tilesEvaluated);
+      if (tilesChanged >= 0)
+      {
+         changed.add(tilesChanged);
+      }
+      if (tilesFaded >= 0)
+      {
+         faded.add(tilesFaded);
+      }
+      if (liveArea >= 0)
+      {
+         live.add(liveArea);
+      }
+   }
+
+   synchronized void notified(long nanos)
+   {
+      notifyTime.add(nanos * 1e-6);
+   }
+
+   synchronized void backlog(float seconds, int frames)
+   {
+      backlog.add(seconds);
+      backlogFrames.add(frames);
+   }
+
+   // publish on the platform MBean server, under dstarapp:type=DstarGrid,name=<name>
+   public ObjectName register(String name) throws JMException
+   {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("dstarapp:type=DstarGrid,name=" + ObjectName.quote(name));
+      server.registerMBean(this, objectName);
+      return objectName;
+   }
+
+   public void unregister(ObjectName objectName) throws JMException
+   {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+   }
+
+   public synchronized long getTicks()
+   {
+      return ticks;
+   }
+
+   public synchronized Percentiles getTickTime()
+   {
+      return tickTime.percentiles();
+   }
+
+   public synchronized Percentiles getTargetTime()
+   {
+      return targetTime.percentiles();
+   }
+
+   public synchronized Percentiles getSweepTime()
+   {
+      return sweepTime.percentiles();
+   }
+
+   public synchronized Percentiles getCheckTime()
+   {
+      return checkTime.percentiles();
+   }
+
+   public synchronized Percentiles getSwapTime()
+   {
+      return swapTime.percentiles();
+   }
+
+   public synchronized Percentiles getNotifyTime()
+   {
+      return notifyTime.percentiles();
+   }
+
+   public synchronized long getTilesEvaluated()
+   {
+      return lastEvaluated;
+   }
+
+   public synchronized long getTilesChanged()
+   {
+      return lastChanged;
+   }
+
+   public synchronized long getTilesFaded()
+   {
+      return lastFaded;
+   }
+
+   public synchronized long getLiveArea()
+   {
+      return lastLive;
+   }
+
+   public synchronized Percentiles getTilesEvaluatedPerTick()
+   {
+      return evaluated.percentiles();
+   }
+
+   public synchronized Percentiles getTilesChangedPerTick()
+   {
+      return changed.percentiles();
+   }
+
+   public synchronized Percentiles getTilesFadedPerTick()
+   {
+      return faded.percentiles();
+   }
+
+   public synchronized Percentiles getLiveAreaPerTick()
+   {
+      return live.percentiles();
+   }
+
+   public synchronized Percentiles getBacklog()
+   {
+      return backlog.percentiles();
+   }
+
+   public synchronized Percentiles getBacklogFrames()
+   {
+      return backlogFrames.percentiles();
+   }
+
+   public synchronized void reset()
+   {
+      ticks = 0;
+      Window[] windows =
+      {
+         tickTime, targetTime, sweepTime, checkTime, swapTime, notifyTime, evaluated, changed, faded, live, backlog, backlogFrames
+      };
+      for (Window window : windows)
+      {
+         window.size = 0;
+         window.next = 0;
+      }
+   }
+
+   /** Percentiles of the most recent samples of a value. */
+   public static class Percentiles
+   {
+
+      private final int count;
+      private final double mean;
+      private final double p50;
+      private final double p90;
+      private final double p99;
+      private final double max;
+
+      @ConstructorProperties(
+      {
+         "count", "mean", "p50", "p90", "p99", "max"
+      })
+      public Percentiles(int count, double mean, double p50, double p90, double p99, double max)
+      {
+         this.count = count;
+         this.mean = mean;
+         this.p50 = p50;
+         this.p90 = p90;
+         this.p99 = p99;
+         this.max = max;
+      }
+
+      public int getCount()
+      {
+         return count;
+      }
+
+      public double getMean()
+      {
+         return mean;
+      }
+
+      public double getP50()
+      {
+         return p50;
+      }
+
+      public double getP90()
+      {
+         return p90;
+      }
+
+      public double getP99()
+      {
+         return p99;
+      }
+
+      public double getMax()
+      {
+         return max;
+      }
+
+      @Override
+      public String toString()
+      {
+         return String.format("n=%d mean=%.4f p50=%.4f p90=%.4f p99=%.4f max=%.4f", count, mean, p50, p90, p99, max);
+      }
+   }
+
+   // ring buffer of the most recent samples of a value
+   private static class Window
+   {
+
+      private final double[] samples = new double[WINDOW];
+      private int size = 0;
+      private int next = 0;
+
+      void add(double sample)
+      {
+         samples[next] = sample;
+         next = (next + 1) % WINDOW;
+         if (size < WINDOW)
+         {
+            size++;
+         }
+      }
+
+      Percentiles percentiles()
+      {
+         if (size == 0)
+         {
+            return new Percentiles(0, 0, 0, 0, 0, 0);
+         }
+         double[] sorted = Arrays.copyOf(samples, size);
+         Arrays.sort(sorted);
+         double sum = 0;
+         for (double sample : sorted)
+         {
+            sum += sample;
+         }
+         return new Percentiles(size, sum / size, rank(sorted, .5), rank(sorted, .9), rank(sorted, .99), sorted[size - 1]);
+      }
+
+      // nearest rank percentile of sorted samples
+      private static double rank(double[] sorted, double p)
+      {
+         return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+      }
+   }
+}
@@ -0,0 +1,72 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+/**
+ * Management interface of DstarMetrics. Times are in milliseconds and every percentile is taken
+ * over the most recent ticks. Tile counts of -1 mean the storage or update mode does not count
+ * tiles.
+ */
+public interface DstarMetricsMXBean
+{
+
+   // number of ticks recorded since the last reset
+   long getTicks();
+
+   // wall time of a whole tick and of each of its phases
+   DstarMetrics.Percentiles getTickTime();
+
+   DstarMetrics.Percentiles getTargetTime();
+
+   DstarMetrics.Percentiles getSweepTime();
+
+   // counting the changed tiles and checking the buffers for convergence, after the sweep
+   DstarMetrics.Percentiles getCheckTime();
+
+   DstarMetrics.Percentiles getSwapTime();
+
+   // wall time of notifying the updateables, once per call of step or move
+   DstarMetrics.Percentiles getNotifyTime();
+
+   // tiles of the last tick
+   long getTilesEvaluated();
+
+   long getTilesChanged();
+
+   long getTilesFaded();
+
+   long getLiveArea();
+
+   DstarMetrics.Percentiles getTilesEvaluatedPerTick();
+
+   DstarMetrics.Percentiles getTilesChangedPerTick();
+
+   DstarMetrics.Percentiles getTilesFadedPerTick();
+
+   DstarMetrics.Percentiles getLiveAreaPerTick();
+
+   // seconds waiting to be simulated when the clock moved the grid, and the frames it took
+   DstarMetrics.Percentiles getBacklog();
+
+   DstarMetrics.Percentiles getBacklogFrames();
+
+   void reset();
+}
@@ -0,0 +1,244 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * Continuous arrival times of a DstarGrid by fast marching. The time of a tile solves the Eikonal
+ * equation |grad time| = cost from its known neighbors in x and y, instead of the shortest time
+ * along the discrete directions, and tiles are known in the order of their time. The direction of
+ * a tile is down the gradient of the times: an angle, and the state of the neighbor closest to it
+ * with a shorter time. Like the fixed point of the moves, tiles with a time above flowTime are
+ * no candidate for their neighbors and tiles with a time above fadeTime have no direction.
+ */
+class FastMarching
+{
+
+   private final int width;
+   private final int height;
+   private final int stride;
+   // the speed and cost arrays of the grid, only read
+   private final float[] speed;
+   private final float[] cost;
+   private final Position[] dir;
+   private final int[] offsets;
+   // the angle of the direction of each tile, -1 for none, laid out like the tile arrays
+   private final float[] angle;
+   // the tiles with a time, not yet known, keyed by it
+   private final IndexHeap band;
+   // the known tiles in a bit set
+   private final long[] known;
+   // the targets, times and speeds of the current field
+   private int[] targets = null;
+   private float fadeTime = -1;
+   private float flowTime = -1;
+   private long speedChanges = -1;
+   private float limit = 0;
+   // tiles known in the last move
+   private long evaluated = 0;
+
+   public FastMarching(int width, int height, float[] speed, float[] cost, Position[] dir, int[] offsets)
+   {
+      this.width = width;
+      this.height = height;
+      this.speed = speed;
+      this.cost = cost;
+      this.dir = dir;
+      this.offsets = offsets;
+      stride = width + 2;
+      angle = new float[speed.length];
+      Arrays.fill(angle, -1);
+      band = new IndexHeap(speed.length);
+      known = new long[(speed.length + 63) >> 6];
+   }
+
+   // Solves the field again when the targets, times or speeds changed since the last move, and
+   // writes it into the state and time arrays of the grid. Returns whether it was solved.
+   public boolean move(int[] newTargets, float fadeTime, float flowTime, long speedChanges, int[] state, float[] time)
+   {
+      evaluated = 0;
+      newTargets = newTargets.clone();
+      Arrays.sort(newTargets);
+      if (Arrays.equals(newTargets, targets) && fadeTime == this.fadeTime && flowTime == this.flowTime && speedChanges == this.speedChanges)
+      {
+         return false;
+      }
+      targets = newTargets;
+      this.fadeTime = fadeTime;
+      this.flowTime = flowTime;
+      this.speedChanges = speedChanges;
+      limit = Math.min(fadeTime, flowTime);
+      solve(time);
+      write(state, time);
+      return true;
+   }
+
+   // the angles of the current field, shared
+   public float[] getAngles()
+   {
+      return angle;
+   }
+
+   public long getEvaluated()
+   {
+      return evaluated;
+   }
+
+   // march from the targets, the times of tiles not reached are infinite
+   private void solve(float[] time)
+   {
+      Arrays.fill(time, Float.POSITIVE_INFINITY);
+      Arrays.fill(known, 0);
+      band.clear();
+      for (int i = 0; i < targets.length; i++)
+      {
+         time[targets[i]] = 0;
+         band.push(targets[i], 0);
+      }
+      while (!band.isEmpty())
+      {
+         int index = band.pop();
+         known[index >> 6] |= 1L << index;
+         evaluated++;
+         if (time[index] > limit)
+         {
+            continue;
+         }
+         arrive(index - 1, time);
+         arrive(index + 1, time);
+         arrive(index - stride, time);
+         arrive(index + stride, time);
+      }
+   }
+
+   // the time of a tile from its known neighbors, ghost tiles have no speed
+   private void arrive(int index, float[] time)
+   {
+      if ((known[index >> 6] & 1L << index) != 0 || speed[index] <= 0)
+      {
+         return;
+      }
+      float a = Math.min(candidate(index - 1, time), candidate(index + 1, time));
+      float b = Math.min(candidate(index - stride, time), candidate(index + stride, time));
+      if (a > b)
+      {
+         float swap = a;
+         a = b;
+         b = swap;
+      }
+      float tileCost = cost[index];
+      float newtime;
+      if (b - a >= tileCost)
+      {
+         newtime = a + tileCost;
+      }
+      else
+      {
+         newtime = .5f * (a + b + (float) Math.sqrt(2 * tileCost * tileCost - (b - a) * (b - a)));
+      }
+      if (newtime < time[index])
+      {
+         time[index] = newtime;
+         band.push(index, newtime);
+      }
+   }
+
+   // the time of a known tile below the limit, or infinite
+   private float candidate(int index, float[] time)
+   {
+      return (known[index >> 6] & 1L << index) != 0 && time[index] <= limit ? time[index] : Float.POSITIVE_INFINITY;
+   }
+
+   // write the states, times and angles, targets and tiles beyond fadeTime have no direction
+   private void write(int[] state, float[] time)
+   {
+      Arrays.fill(state, 0);
+      Arrays.fill(angle, -1);
+      for (int y = 0; y < height; y++)
+      {
+         int index = (y + 1) * stride + 1;
+         for (int end = index + width; index < end; index++)
+         {
+            float tileTime = time[index];
+            if (tileTime <= fadeTime && tileTime > 0)
+            {
+               direct(index, time, state);
+            }
+         }
+      }
+      for (int index = 0; index < time.length; index++)
+      {
+         if (!(time[index] <= fadeTime))
+         {
+            time[index] = 0;
+         }
+      }
+   }
+
+   // the direction of a tile down the gradient of the known times around it
+   private void direct(int index, float[] time, int[] state)
+   {
+      float tileTime = time[index];
+      float gx = slope(candidate(index - 1, time), tileTime, candidate(index + 1, time));
+      float gy = slope(candidate(index - stride, time), tileTime, candidate(index + stride, time));
+      if (gx == 0 && gy == 0)
+      {
+         return;
+      }
+      // heading along -gradient, at the angle of getDirectionMap()
+      float vx = -gx;
+      float vy = -gy;
+      float tileAngle = (float) Math.atan2(-vx, vy);
+      angle[index] = tileAngle < 0 ? tileAngle + 6.283185f : tileAngle;
+
+      // the neighbor with a shorter time closest to that heading
+      float bestDot = Float.NEGATIVE_INFINITY;
+      int bestState = 0;
+      for (int i = 0; i < offsets.length; i++)
+      {
+         if (candidate(index + offsets[i], time) < tileTime)
+         {
+            float dot = (dir[i].x * vx + dir[i].y * vy) / (float) Math.sqrt(dir[i].x * dir[i].x + dir[i].y * dir[i].y);
+            if (dot > bestDot)
+            {
+               bestDot = dot;
+               bestState = i + 1;
+            }
+         }
+      }
+      state[index] = bestState;
+   }
+
+   // the slope of the times across a tile, towards its neighbor with the shorter time
+   private static float slope(float before, float tileTime, float after)
+   {
+      if (before < after && before < tileTime)
+      {
+         return tileTime - before;
+      }
+      if (after < tileTime)
+      {
+         return after - tileTime;
+      }
+      return 0;
+   }
+}
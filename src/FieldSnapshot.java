@@ -0,0 +1,585 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the field of a DstarGrid between two moves, stamped with the number of
+ * moves made before it (its epoch). Any number of threads can read a snapshot while the grid moves
+ * on, and all they read is of the same move. The tiles are kept in blocks of BLOCK_SIZE square,
+ * and blocks that did not change are shared with the previous snapshot, so taking a snapshot only
+ * copies the blocks the moves changed. On a hierarchical grid, the directions of tiles the field
+ * has not reached come from the coarse field of the same move, and on a marching grid the
+ * directions of the map are continuous angles. The fields of the other channels are copied along
+ * with channel 0. The speeds of storage are read from it when asked for rather than copied, see
+ * StorageSpeeds. Two snapshots tell which blocks of tiles differ in what is drawn of them, to draw
+ * only those again.
+ */
+public class FieldSnapshot
+{
+
+   // width and height of the blocks of tiles, and of getChangedBlocks()
+   public final static int BLOCK_SIZE = 16;
+   final static int BLOCK_SHIFT = 4;
+   final static int BLOCK_TILES = BLOCK_SIZE * BLOCK_SIZE;
+   // the field of blocks without scent
+   final static int[] EMPTY_STATE = new int[BLOCK_TILES];
+   final static float[] EMPTY_TIME = new float[BLOCK_TILES];
+   private final long epoch;
+   private final int width;
+   private final int height;
+   private final int blocksWide;
+   private final float fadeTime;
+   private final Position[] dir;
+   // the blocks, row by row, and those of the other channels from channel 1
+   private final Block[] blocks;
+   private final Block[][] channelBlocks;
+   // whether the blocks have the angles of a marching grid
+   private final boolean angles;
+   // tiles of the targets the field was moved with, as indexes of the padded tile arrays, and
+   // those of the other channels from channel 1
+   private final int[] targets;
+   private final int[][] channelTargets;
+   // the coarse field, null when not hierarchical
+   private final CoarseField coarse;
+   // the speeds of the blocks without speeds, null for the tile arrays
+   private final StorageSpeeds storageSpeeds;
+
+   /**
+    * The tiles of a block, row by row, BLOCK_SIZE to a row. Tiles outside the grid are never read.
+    * The arrays are never written once in a block, and a block shares the arrays that did not
+    * change with the block it was copied from. The speeds are null when read from the storage, and
+    * in the blocks of the other channels.
+    */
+   static class Block
+   {
+
+      final int[] state;
+      final float[] time;
+      // the angles of a marching grid, -1 for none, or null
+      final float[] angle;
+      final float[] speed;
+
+      Block(int[] state, float[] time, float[] angle, float[] speed)
+      {
+         this.state = state;
+         this.time = time;
+         this.angle = angle;
+         this.speed = speed;
+      }
+   }
+
+   /**
+    * The speeds of a storage grid, which snapshots read from the storage as they need them instead
+    * of copying them all to the heap. Before the grid first changes the speeds of a block it keeps
+    * a copy of them here, for the snapshots that read that block from the storage, and the
+    * snapshots after it copy that block. Setting all speeds at once keeps no copies, so older
+    * snapshots read the new speeds from then on.
+    */
+   static class StorageSpeeds
+   {
+
+      private final TileStorage storage;
+      private final int width;
+      private final int height;
+      // the speeds of each block before they were first changed, or null
+      private final float[][] kept;
+      // whether the speeds of each block were changed, read and written by the grid only
+      private final boolean[] changed;
+
+      StorageSpeeds(TileStorage storage, int width, int height)
+      {
+         this.storage = storage;
+         this.width = width;
+         this.height = height;
+         int count = blocksWide(width) * blocksWide(height);
+         kept = new float[count][];
+         changed = new boolean[count];
+      }
+
+      TileStorage getStorage()
+      {
+         return storage;
+      }
+
+      // the speed of a tile as it was when a block of a snapshot that reads it was taken
+      synchronized float speed(int x, int y)
+      {
+         float[] speed = kept[(y >> BLOCK_SHIFT) * blocksWide(width) + (x >> BLOCK_SHIFT)];
+         return speed != null ? speed[offset(x, y)] : storage.getSpeed(x, y);
+      }
+
+      // sets the speed of a tile in the storage, keeping the speeds of its block the first time
+      synchronized void setSpeed(int x, int y, float speed)
+      {
+         int block = (y >> BLOCK_SHIFT) * blocksWide(width) + (x >> BLOCK_SHIFT);
+         if (!changed[block])
+         {
+            int fromX = x & ~(BLOCK_SIZE - 1);
+            int fromY = y & ~(BLOCK_SIZE - 1);
+            float[] old = new float[BLOCK_TILES];
+            for (int tileY = fromY; tileY < Math.min(fromY + BLOCK_SIZE, height); tileY++)
+            {
+               for (int tileX = fromX; tileX < Math.min(fromX + BLOCK_SIZE, width); tileX++)
+               {
+                  old[offset(tileX, tileY)] = storage.getSpeed(tileX, tileY);
+               }
+            }
+            kept[block] = old;
+            changed[block] = true;
+         }
+         storage.setSpeed(x, y, speed);
+      }
+
+      synchronized void setSpeed(float speed)
+      {
+         storage.setSpeed(speed);
+         Arrays.fill(changed, true);
+      }
+
+      // whether the speeds of a block were changed, and are copied by the snapshots from now on
+      boolean isChanged(int block)
+      {
+         return changed[block];
+      }
+   }
+
+   FieldSnapshot(long epoch, int width, int height, float fadeTime, Position[] dir, Block[] blocks, Block[][] channelBlocks, boolean angles, int[] targets, int[][] channelTargets, CoarseField coarse, StorageSpeeds storageSpeeds)
+   {
+      this.epoch = epoch;
+      this.width = width;
+      this.height = height;
+      this.fadeTime = fadeTime;
+      this.dir = dir;
+      this.blocks = blocks;
+      this.channelBlocks = channelBlocks;
+      this.angles = angles;
+      this.targets = targets;
+      this.channelTargets = channelTargets;
+      this.coarse = coarse;
+      this.storageSpeeds = storageSpeeds;
+      blocksWide = blocksWide(width);
+   }
+
+   public long getEpoch()
+   {
+      return epoch;
+   }
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public int getHeight()
+   {
+      return height;
+   }
+
+   public float getSpeed(int x, int y)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return -1;
+      }
+      return speed(x, y);
+   }
+
+   public float getTime(int x, int y)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return -1;
+      }
+      return time(x, y);
+   }
+
+   public String getDirection(int x, int y)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return "none";
+      }
+      int tileState = direction(x, y);
+      if (tileState == 0)
+      {
+         return "none";
+      }
+      Position direction = dir[tileState - 1];
+      return "[" + direction.x + "," + (direction.y) + "]";
+   }
+
+   // the number of channels, channel 0 included, see DstarGrid.addChannel()
+   public int getChannelCount()
+   {
+      return channelBlocks.length + 1;
+   }
+
+   public float getTime(int channel, int x, int y)
+   {
+      if (channel == 0)
+      {
+         return getTime(x, y);
+      }
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return -1;
+      }
+      return block(channelBlocks[channel - 1], x, y).time[offset(x, y)];
+   }
+
+   // the direction of a tile in the field of a channel, without coarse directions but in channel 0
+   public String getDirection(int channel, int x, int y)
+   {
+      if (channel == 0)
+      {
+         return getDirection(x, y);
+      }
+      int tileState = state(channel, x, y);
+      if (tileState == 0 || tileState > dir.length)
+      {
+         return "none";
+      }
+      Position direction = dir[tileState - 1];
+      return "[" + direction.x + "," + (direction.y) + "]";
+   }
+
+   public Color[][] getColorMap()
+   {
+      Color[][] result = new Color[width][height];
+
+      for (int y = 0; y < height; y++)
+      {
+         for (int x = 0; x < width; x++)
+         {
+            Block block = block(x, y);
+            int offset = offset(x, y);
+            float tileTime = block.time[offset] / fadeTime;
+            if (block.state[offset] == 0)
+            {
+               tileTime = 1;
+            }
+            if (tileTime > 1)
+            {
+               tileTime = 1;
+            }
+            if (tileTime < 0)
+            {
+               tileTime = 0;
+            }
+            float tileSpeed = (float) Math.sqrt(speed(x, y));
+            if (tileSpeed > 1)
+            {
+               tileSpeed = 1;
+            }
+            if (tileSpeed < 0)
+            {
+               tileSpeed = 0;
+            }
+            result[x][y] = Color.getHSBColor(0, 1 - tileTime, tileSpeed);
+         }
+      }
+
+
+      return result;
+   }
+
+   public float[][] getDirectionMap()
+   {
+      float[][] result = new float[width][height];
+
+      for (int y = 0; y < height; y++)
+      {
+         for (int x = 0; x < width; x++)
+         {
+
+            int tileState = direction(x, y);
+            float tileAngle = angle(x, y);
+            if (tileAngle >= 0)
+            {
+               result[x][y] = tileAngle;
+            }
+            else if (tileState == 0)
+            {
+               result[x][y] = -1;
+            }
+            else
+            {
+               result[x][y] = angle(dir[tileState - 1]);
+            }
+         }
+      }
+
+      return result;
+   }
+
+   // the angle of a direction in the direction map
+   static float angle(Position direction)
+   {
+      if (direction.y > 0)
+      {
+         return (float) -Math.atan(direction.x / direction.y) + 6.283185f;
+      }
+      else if (direction.y < 0)
+      {
+         return (float) -Math.atan(direction.x / direction.y) + 3.141593f;
+      }
+      return direction.x > 0 ? 4.712389f : 1.570796f;
+   }
+
+   // Which blocks of BLOCK_SIZE tiles, row by row, differ from an earlier snapshot in state,
+   // color of their time, speed, angle or coarse direction. Null when all tiles may differ:
+   // without an earlier snapshot, or with another size, fade time or connection, or with a coarse
+   // field in only one of them. Blocks, arrays and coarse clusters shared with the earlier
+   // snapshot are not compared.
+   public boolean[] getChangedBlocks(FieldSnapshot since)
+   {
+      return getChangedBlocks(since, 0, 0, width, height);
+   }
+
+   // the blocks that differ from an earlier snapshot, of those over a region of tiles only
+   public boolean[] getChangedBlocks(FieldSnapshot since, int fromX, int fromY, int toX, int toY)
+   {
+      if (since == null || since.width != width || since.height != height || since.fadeTime != fadeTime || since.dir != dir || (since.coarse == null) != (coarse == null) || since.angles != angles)
+      {
+         return null;
+      }
+      boolean[] result = new boolean[blocks.length];
+      int fromBlockX = Math.max(fromX, 0) >> BLOCK_SHIFT;
+      int toBlockX = (Math.min(toX, width) + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+      int fromBlockY = Math.max(fromY, 0) >> BLOCK_SHIFT;
+      int toBlockY = (Math.min(toY, height) + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+      for (int blockY = fromBlockY; blockY < toBlockY; blockY++)
+      {
+         for (int blockX = fromBlockX; blockX < toBlockX; blockX++)
+         {
+            int b = blockY * blocksWide + blockX;
+            if (blocks[b] != since.blocks[b])
+            {
+               result[b] = changed(blocks[b], since.blocks[b]);
+            }
+            if (!result[b] && coarse != since.coarse)
+            {
+               int x = blockX << BLOCK_SHIFT;
+               int y = blockY << BLOCK_SHIFT;
+               result[b] = !coarse.sameDirections(since.coarse, x, y, Math.min(x + BLOCK_SIZE, width), Math.min(y + BLOCK_SIZE, height));
+            }
+         }
+      }
+      return result;
+   }
+
+   // Whether a block is drawn otherwise than a block of an earlier snapshot of the same fade time.
+   // Speeds of storage are only copied once they were changed, so those count as changed.
+   private boolean changed(Block block, Block since)
+   {
+      if (block.speed != since.speed && (block.speed == null || since.speed == null))
+      {
+         return true;
+      }
+      for (int offset = 0; offset < BLOCK_TILES; offset++)
+      {
+         if (block.speed != since.speed && block.speed[offset] != since.speed[offset])
+         {
+            return true;
+         }
+         if (block.state == since.state && block.time == since.time && block.angle == since.angle)
+         {
+            continue;
+         }
+         int state = block.state[offset];
+         if (state != since.state[offset])
+         {
+            return true;
+         }
+         float time = block.time[offset];
+         if (time != since.time[offset] && saturation(state, time, fadeTime) != saturation(state, since.time[offset], fadeTime))
+         {
+            return true;
+         }
+         if (block.angle != null && block.angle[offset] != since.angle[offset])
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   // the saturation of the color of a tile in 0..255, from its time
+   static int saturation(int state, float time, float fadeTime)
+   {
+      float tileTime = state == 0 ? 1 : time / fadeTime;
+      return tileTime >= 1 ? 0 : tileTime <= 0 ? 255 : (int) (255 * (1 - tileTime) + .5f);
+   }
+
+   // paths along the directions of this snapshot, reading its blocks
+   public PathQuery getPathQuery()
+   {
+      return new PathQuery(this, 0, targets.clone(), coarse);
+   }
+
+   // like getPathQuery(), along the directions of a channel
+   public PathQuery getPathQuery(int channel)
+   {
+      if (channel == 0)
+      {
+         return getPathQuery();
+      }
+      return new PathQuery(this, channel, channelTargets[channel - 1].clone(), null);
+   }
+
+   float getFadeTime()
+   {
+      return fadeTime;
+   }
+
+   Position[] getConnection()
+   {
+      return dir;
+   }
+
+   // the blocks, to share with the next snapshot when they did not change
+   Block getBlock(int block)
+   {
+      return blocks[block];
+   }
+
+   int getBlockCount()
+   {
+      return blocks.length;
+   }
+
+   Block getChannelBlock(int channel, int block)
+   {
+      return channelBlocks[channel - 1][block];
+   }
+
+   boolean hasAngles()
+   {
+      return angles;
+   }
+
+   int[] getTargets()
+   {
+      return targets;
+   }
+
+   int[] getChannelTargets(int channel)
+   {
+      return channelTargets[channel - 1];
+   }
+
+   CoarseField getCoarse()
+   {
+      return coarse;
+   }
+
+   // the state of a tile, 0 outside the grid
+   int state(int x, int y)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return 0;
+      }
+      return block(x, y).state[offset(x, y)];
+   }
+
+   // the state of a tile in the field of a channel, 0 outside the grid
+   int state(int channel, int x, int y)
+   {
+      if (channel == 0)
+      {
+         return state(x, y);
+      }
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return 0;
+      }
+      return block(channelBlocks[channel - 1], x, y).state[offset(x, y)];
+   }
+
+   // the time, speed and angle of a tile inside the grid, the angle -1 when it has none
+   float time(int x, int y)
+   {
+      return block(x, y).time[offset(x, y)];
+   }
+
+   float speed(int x, int y)
+   {
+      float[] speed = block(x, y).speed;
+      return speed != null ? speed[offset(x, y)] : storageSpeeds.speed(x, y);
+   }
+
+   float angle(int x, int y)
+   {
+      float[] angle = block(x, y).angle;
+      return angle != null ? angle[offset(x, y)] : -1;
+   }
+
+   // the state of a tile as a direction, from the coarse field when the field has none, or 0
+   int direction(int x, int y)
+   {
+      int tileState = block(x, y).state[offset(x, y)];
+      if (tileState == 0 || tileState > dir.length)
+      {
+         return coarse != null ? coarse.direction(x, y) : 0;
+      }
+      return tileState;
+   }
+
+   // the block of a tile inside the grid, of channel 0 or of the blocks of another channel
+   private Block block(int x, int y)
+   {
+      return blocks[(y >> BLOCK_SHIFT) * blocksWide + (x >> BLOCK_SHIFT)];
+   }
+
+   private Block block(Block[] channel, int x, int y)
+   {
+      return channel[(y >> BLOCK_SHIFT) * blocksWide + (x >> BLOCK_SHIFT)];
+   }
+
+   // the offset of a tile in the arrays of its block
+   static int offset(int x, int y)
+   {
+      return (y & BLOCK_SIZE - 1) << BLOCK_SHIFT | x & BLOCK_SIZE - 1;
+   }
+
+   // the number of blocks in a row of a grid of the given width
+   static int blocksWide(int width)
+   {
+      return (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+   }
+
+   // mark the blocks over the tiles fromX, fromY until toX, toY of a grid of the given width
+   static void mark(boolean[] blocks, int width, int fromX, int fromY, int toX, int toY)
+   {
+      int blocksWide = blocksWide(width);
+      for (int blockY = fromY >> BLOCK_SHIFT; blockY <= (toY - 1) >> BLOCK_SHIFT; blockY++)
+      {
+         for (int blockX = fromX >> BLOCK_SHIFT; blockX <= (toX - 1) >> BLOCK_SHIFT; blockX++)
+         {
+            blocks[blockY * blocksWide + blockX] = true;
+         }
+      }
+   }
+}
@@ -0,0 +1,267 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * Solves the fixed point of the moves of a DstarGrid in one pass: the shortest time of each tile
+ * to the nearest target, as Dijkstra from all targets at once. Tiles wait in buckets of times,
+ * each bucket no wider than the shortest time between two tiles, so the tiles of a bucket never
+ * shorten each other and are taken in any order. When the longest time between two tiles spans
+ * too many buckets, the tiles wait in a binary heap instead.
+ */
+class FieldSolver
+{
+
+   // the most buckets in flight, the ring of buckets is about as long
+   private final static int MAX_BUCKETS = 1 << 12;
+   private final int width;
+   private final int height;
+   private final int stride;
+   // the tile arrays of the grid, only read
+   private final float[] speed;
+   private final float[] cost;
+   private final int[] offsets;
+   private final float[] halflength;
+   // tiles settled by the last solve
+   private long settled = 0;
+
+   public FieldSolver(int width, int height, float[] speed, float[] cost, int[] offsets, float[] halflength)
+   {
+      this.width = width;
+      this.height = height;
+      this.speed = speed;
+      this.cost = cost;
+      this.offsets = offsets;
+      this.halflength = halflength;
+      stride = width + 2;
+   }
+
+   // The shortest time of each tile to the targets into time, infinite for tiles not reached.
+   // Tiles above limit are no candidate for their neighbors, tiles without speed only as target.
+   public void solve(int[] targets, float limit, float[] time)
+   {
+      Arrays.fill(time, Float.POSITIVE_INFINITY);
+      settled = 0;
+      float minCost = Float.POSITIVE_INFINITY;
+      float maxCost = 0;
+      for (int y = 0; y < height; y++)
+      {
+         int index = (y + 1) * stride + 1;
+         for (int end = index + width; index < end; index++)
+         {
+            if (speed[index] > 0)
+            {
+               minCost = Math.min(minCost, cost[index]);
+               maxCost = Math.max(maxCost, cost[index]);
+            }
+         }
+      }
+      float minLength = Float.POSITIVE_INFINITY;
+      float maxLength = 0;
+      for (int i = 0; i < halflength.length; i++)
+      {
+         minLength = Math.min(minLength, 2 * halflength[i]);
+         maxLength = Math.max(maxLength, 2 * halflength[i]);
+      }
+
+      // half the shortest time between two tiles, leaving room for rounding
+      float bucketWidth = .5f * minLength * minCost;
+      float longest = maxLength * maxCost;
+      if (bucketWidth > 0 && longest / bucketWidth < MAX_BUCKETS)
+      {
+         solveBuckets(targets, limit, time, bucketWidth, (int) (longest / bucketWidth) + 2);
+      }
+      else
+      {
+         solveHeap(targets, limit, time);
+      }
+   }
+
+   // Writes the fixed point of the times into the state and time arrays of the grid. Each tile
+   // heads for the neighbor it has its time from, targets and tiles beyond fadeTime have no
+   // direction and time 0.
+   public void write(int[] targets, float fadeTime, float limit, int[] state, float[] time)
+   {
+      Arrays.fill(state, 0);
+      for (int y = 0; y < height; y++)
+      {
+         int index = (y + 1) * stride + 1;
+         for (int end = index + width; index < end; index++)
+         {
+            if (time[index] <= fadeTime && speed[index] > 0)
+            {
+               state[index] = best(index, limit, time);
+            }
+         }
+      }
+      for (int i = 0; i < targets.length; i++)
+      {
+         state[targets[i]] = 0;
+      }
+      // only now the times beyond fadeTime are no longer needed
+      for (int index = 0; index < time.length; index++)
+      {
+         if (!(time[index] <= fadeTime))
+         {
+            time[index] = 0;
+         }
+      }
+   }
+
+   public long getSettled()
+   {
+      return settled;
+   }
+
+   // the state of the first neighbor below limit with the shortest time to a tile
+   int best(int index, float limit, float[] time)
+   {
+      float tileCost = cost[index];
+      float bestTime = Float.POSITIVE_INFINITY;
+      int bestState = 0;
+      for (int i = 0; i < offsets.length; i++)
+      {
+         int other = index + offsets[i];
+         if (time[other] <= limit)
+         {
+            float newtime = time[other] + halflength[i] * (cost[other] + tileCost);
+            if (newtime < bestTime)
+            {
+               bestTime = newtime;
+               bestState = i + 1;
+            }
+         }
+      }
+      return bestState;
+   }
+
+   // Dijkstra with a ring of buckets of the given width, the tiles of a bucket in the order they
+   // were put there. A tile is put again when its time shortens, and skipped where it was before.
+   private void solveBuckets(int[] targets, float limit, float[] time, float width, int ring)
+   {
+      int[][] bucket = new int[ring][];
+      int[] bucketSize = new int[ring];
+      for (int i = 0; i < ring; i++)
+      {
+         bucket[i] = new int[16];
+      }
+      long[] done = new long[(time.length + 63) >> 6];
+      long waiting = 0;
+      for (int i = 0; i < targets.length; i++)
+      {
+         time[targets[i]] = 0;
+         bucket[0] = put(bucket[0], bucketSize[0]++, targets[i]);
+         waiting++;
+      }
+
+      for (long current = 0; waiting > 0; current++)
+      {
+         int slot = (int) (current % ring);
+         int[] tiles = bucket[slot];
+         for (int j = 0; j < bucketSize[slot]; j++)
+         {
+            waiting--;
+            int index = tiles[j];
+            float tileTime = time[index];
+            if ((done[index >> 6] & 1L << index) != 0 || (long) (tileTime / width) > current)
+            {
+               continue;
+            }
+            done[index >> 6] |= 1L << index;
+            settled++;
+            if (tileTime > limit)
+            {
+               continue;
+            }
+            for (int i = 0; i < offsets.length; i++)
+            {
+               // the tile that heads for this one in direction i, ghost tiles have no speed
+               int other = index - offsets[i];
+               if (speed[other] <= 0)
+               {
+                  continue;
+               }
+               float newtime = tileTime + halflength[i] * (cost[index] + cost[other]);
+               if (newtime < time[other])
+               {
+                  time[other] = newtime;
+                  // rounding never puts a tile before the current bucket
+                  long at = Math.max(current, (long) (newtime / width));
+                  int otherSlot = (int) (at % ring);
+                  bucket[otherSlot] = put(bucket[otherSlot], bucketSize[otherSlot]++, other);
+                  waiting++;
+               }
+            }
+            // put() may have grown the current bucket
+            tiles = bucket[slot];
+         }
+         bucketSize[slot] = 0;
+      }
+   }
+
+   // Dijkstra with a binary heap
+   private void solveHeap(int[] targets, float limit, float[] time)
+   {
+      IndexHeap heap = new IndexHeap(time.length);
+      for (int i = 0; i < targets.length; i++)
+      {
+         time[targets[i]] = 0;
+         heap.push(targets[i], 0);
+      }
+      while (!heap.isEmpty())
+      {
+         int index = heap.pop();
+         float tileTime = time[index];
+         settled++;
+         if (tileTime > limit)
+         {
+            continue;
+         }
+         for (int i = 0; i < offsets.length; i++)
+         {
+            int other = index - offsets[i];
+            if (speed[other] <= 0)
+            {
+               continue;
+            }
+            float newtime = tileTime + halflength[i] * (cost[index] + cost[other]);
+            if (newtime < time[other])
+            {
+               time[other] = newtime;
+               heap.push(other, newtime);
+            }
+         }
+      }
+   }
+
+   // put a tile at a position of a bucket, growing it when full
+   private static int[] put(int[] tiles, int at, int index)
+   {
+      if (at == tiles.length)
+      {
+         tiles = Arrays.copyOf(tiles, 2 * at);
+      }
+      tiles[at] = index;
+      return tiles;
+   }
+}
@@ -0,0 +1,195 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of the ids 0 until a capacity, each with a float key. The position of each id
+ * in the heap is kept, so the key of an id in the heap can be changed in place.
+ */
+class IndexHeap
+{
+
+   // ids in heap order, and the number of them, the array grows up to the capacity
+   private int[] heap;
+   private int size = 0;
+   // key of each id, and its position in the heap plus 1, 0 when not in the heap
+   private final float[] key;
+   private final int[] position;
+
+   public IndexHeap(int capacity)
+   {
+      heap = new int[Math.min(capacity, 1024)];
+      key = new float[capacity];
+      position = new int[capacity];
+   }
+
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public boolean contains(int id)
+   {
+      return position[id] != 0;
+   }
+
+   // the key of an id in the heap
+   public float getKey(int id)
+   {
+      return key[id];
+   }
+
+   // the id with the smallest key, the heap must not be empty
+   public int peek()
+   {
+      return heap[0];
+   }
+
+   public float peekKey()
+   {
+      return key[heap[0]];
+   }
+
+   // adds an id, or changes its key when it is in the heap already
+   public void push(int id, float newKey)
+   {
+      int at = position[id] - 1;
+      if (at < 0)
+      {
+         if (size == heap.length)
+         {
+            heap = Arrays.copyOf(heap, (int) Math.min(2L * size, key.length));
+         }
+         at = size++;
+         heap[at] = id;
+         position[id] = at + 1;
+         key[id] = newKey;
+         up(at);
+      }
+      else if (newKey < key[id])
+      {
+         key[id] = newKey;
+         up(at);
+      }
+      else
+      {
+         key[id] = newKey;
+         down(at);
+      }
+   }
+
+   // removes and returns the id with the smallest key, the heap must not be empty
+   public int pop()
+   {
+      int id = heap[0];
+      removeAt(0);
+      return id;
+   }
+
+   // removes an id, if it is in the heap
+   public void remove(int id)
+   {
+      if (position[id] != 0)
+      {
+         removeAt(position[id] - 1);
+      }
+   }
+
+   public void clear()
+   {
+      for (int i = 0; i < size; i++)
+      {
+         position[heap[i]] = 0;
+      }
+      size = 0;
+   }
+
+   private void removeAt(int at)
+   {
+      position[heap[at]] = 0;
+      size--;
+      if (at < size)
+      {
+         int last = heap[size];
+         heap[at] = last;
+         position[last] = at + 1;
+         up(at);
+         down(position[last] - 1);
+      }
+   }
+
+   // move the id at a position up while its key is smaller than that of its parent
+   private void up(int at)
+   {
+      int id = heap[at];
+      float idKey = key[id];
+      while (at > 0)
+      {
+         int parent = (at - 1) >>> 1;
+         int other = heap[parent];
+         if (key[other] <= idKey)
+         {
+            break;
+         }
+         heap[at] = other;
+         position[other] = at + 1;
+         at = parent;
+      }
+      heap[at] = id;
+      position[id] = at + 1;
+   }
+
+   // move the id at a position down while its key is larger than that of a child
+   private void down(int at)
+   {
+      int id = heap[at];
+      float idKey = key[id];
+      while (true)
+      {
+         int child = 2 * at + 1;
+         if (child >= size)
+         {
+            break;
+         }
+         if (child + 1 < size && key[heap[child + 1]] < key[heap[child]])
+         {
+            child++;
+         }
+         int other = heap[child];
+         if (idKey <= key[other])
+         {
+            break;
+         }
+         heap[at] = other;
+         position[other] = at + 1;
+         at = child;
+      }
+      heap[at] = id;
+      position[id] = at + 1;
+   }
+}
@@ -29,26 +29,13 @@ import java.awt.image.BufferedImage;
 public class MapCanvas extends Canvas implements Runnable
 {
 
-   // coords of the big arrow
-   private final static float[] arrowFillX = new float[]
-   {
-      0, .5f, .1f, .1f, -.1f, -.1f, -.5f
-   };
-   private final static float[] arrowFillY = new float[]
-   {
-      1f, .4f, .4f, -1f, -1f, .4f, .4f
-   };
-   // coords of the small arrow
-   private final static float[] arrowLineX = new float[]
-   {
-      0, 0, 0, -.5f, 0f, .5f
-   };
-   private final static float[] arrowLineY = new float[]
-   {
-      -1f, 1f, 1f, .4f, 1f, .4f
-   };
-   private final static float arrowLength = .3f;
    private final static float targetRadius = .4f;
+   // the most pixels per tile the view zooms in to
+   private final static float maxScale = 256;
+   // targets smaller than this many pixels are drawn as squares
+   private final static int targetOvalSize = 4;
+   // target colors, by gray level
+   private final static Color[] targetColors = new Color[256];
    // the D* model
    private DstarGrid grid = null;
    // flag to indicate running = active paint thread
@@ -56,6 +43,14 @@ public class MapCanvas extends Canvas implements Runnable
    // double buffered graphics
    private BufferedImage imageBuffer = null;
    private Graphics graphicsBuffer = null;
+   // the tiles and arrows, written as pixels, and the epoch of the snapshot painted last
+   private MapRaster raster = null;
+   private volatile long paintedEpoch = -1;
+   // the view, the tile at the top left pixel and pixels per tile, unless it fits the whole map
+   private boolean fit = true;
+   private float viewLeft = 0;
+   private float viewTop = 0;
+   private float viewScale = 1;
    // the canvas size
    private int width = 0;
    private int height = 0;
@@ -80,96 +75,95 @@ public class MapCanvas extends Canvas implements Runnable
          graphicsBuffer = imageBuffer.createGraphics();
       }
 
-      // read colors, directions, targets
-      Color[][] colorMap = grid.getColorMap();
-      float[][] directionMap = grid.getDirectionMap();
-      Position[] targets = grid.getTargets();
+      paint(graphicsBuffer, width, height);
 
-      // draw the grid
+      // draw the buffer
+      g.drawImage(imageBuffer, 0, 0, this);
 
-      int mapWidth = grid.getWidth();
-      int mapHeight = grid.getHeight();
+   }
 
-      float scaleWidth = width / (float) mapWidth;
-      float scaleHeight = height / (float) mapHeight;
+   // paint the grid on any graphics of the given size, like an offscreen image
+   public void paint(Graphics graphicsBuffer, int width, int height)
+   {
+      // read colors and directions of one move, without waiting for a running grid
+      FieldSnapshot snapshot = running ? grid.getSnapshot() : grid.takeSnapshot();
 
-      // init transformation buffer
-      int[] transformedX = new int[arrowFillX.length];
-      int[] transformedY = new int[arrowFillX.length];
+      int mapWidth = snapshot.getWidth();
+      int mapHeight = snapshot.getHeight();
 
-      // for all tiles
-      for (int y = 0; y < mapHeight; y++)
-      {
-         for (int x = 0; x < mapWidth; x++)
-         {
+      float left = fit ? 0 : viewLeft;
+      float top = fit ? 0 : viewTop;
+      float scaleWidth = fit ? width / (float) mapWidth : viewScale;
+      float scaleHeight = fit ? height / (float) mapHeight : viewScale;
 
-            // draw tile colors
-            graphicsBuffer.setColor(colorMap[x][y]);
-
-            graphicsBuffer.fillRect((int) (x * scaleWidth), (int) (y * scaleHeight), (int) (scaleWidth + 1), (int) (scaleHeight + 1));
-
-            // draw arrow
-            if (directionMap[x][y] >= 0)
-            {
-               // calc transformation
-               float cos = arrowLength * (float) Math.cos(directionMap[x][y]);
-               float sin = arrowLength * (float) Math.sin(directionMap[x][y]);
-
-               graphicsBuffer.setColor(Color.black);
-               // tile contains enough pixels
-               if (scaleWidth * scaleHeight > 1000)
-               {
-                  // draw big arrow
-                  for (int i = 0; i < arrowFillX.length; i++)
-                  {
-                     transformedX[i] = (int) (scaleWidth * (x + .5f + cos * arrowFillX[i] - sin * arrowFillY[i]) + .5f);
-                     transformedY[i] = (int) (scaleHeight * (y + .5f + sin * arrowFillX[i] + cos * arrowFillY[i]) + .5f);
-                  }
-                  graphicsBuffer.fillPolygon(transformedX, transformedY, arrowFillX.length);
-               }
-               else
-               {
-                  // draw small arrow
-                  for (int i = 0; i < arrowLineY.length - 1; i += 2)
-                  {
-                     int beginx = (int) (scaleWidth * (x + .5f + cos * arrowLineX[i] - sin * arrowLineY[i]) + .5f);
-                     int beginy = (int) (scaleHeight * (y + .5f + sin * arrowLineX[i] + cos * arrowLineY[i]) + .5f);
-                     int endx = (int) (scaleWidth * (x + .5f + cos * arrowLineX[i + 1] - sin * arrowLineY[i + 1]) + .5f);
-                     int endy = (int) (scaleHeight * (y + .5f + sin * arrowLineX[i + 1] + cos * arrowLineY[i + 1]) + .5f);
-                     graphicsBuffer.drawLine(beginx, beginy, endx, endy);
-                  }
-               }
-            }
-
-            // draw targets
-            for (int i = 0; i < targets.length; i++)
-            {
-               Color c = colorMap[targets[i].x][targets[i].y];
-               int max = c.getRed();
-               if (c.getGreen() < max)
-               {
-                  max = c.getGreen();
-               }
-               if (c.getBlue() < max)
-               {
-                  max = c.getBlue();
-               }
-               graphicsBuffer.setColor(new Color(255 - max, 255 - max, 255 - max));
-               graphicsBuffer.fillOval((int) (scaleWidth * (.5f + targets[i].x - targetRadius) + .5f), (int) (scaleHeight * (.5f + targets[i].y - targetRadius) + .5f), (int) (scaleWidth * 2 * targetRadius + .5f), (int) (scaleHeight * 2 * targetRadius + .5f));
-            }
+      // draw the tiles in view, as pixels of the raster
+      if (raster == null || raster.getWidth() != width || raster.getHeight() != height)
+      {
+         raster = new MapRaster(width, height);
+      }
+      raster.setView(left, top, scaleWidth, scaleHeight);
+      raster.render(snapshot);
+      paintedEpoch = snapshot.getEpoch();
+      graphicsBuffer.drawImage(raster.getImage(), 0, 0, null);
 
+      // draw targets in view, over the tiles
+      int fromX = Math.max((int) Math.floor(left), 0);
+      int fromY = Math.max((int) Math.floor(top), 0);
+      int toX = Math.min((int) Math.ceil(left + width / scaleWidth), mapWidth);
+      int toY = Math.min((int) Math.ceil(top + height / scaleHeight), mapHeight);
+      int[] targets = new int[grid.getTargetCount()];
+      int count = fromX < toX && fromY < toY ? Math.min(grid.findTargets(fromX, fromY, toX, toY, targets), targets.length) : 0;
+      int targetWidth = (int) (scaleWidth * 2 * targetRadius + .5f);
+      int targetHeight = (int) (scaleHeight * 2 * targetRadius + .5f);
+      for (int i = 0; i < count; i++)
+      {
+         int x = grid.getTargetX(targets[i]);
+         int y = grid.getTargetY(targets[i]);
+         if (x >= mapWidth || y >= mapHeight)
+         {
+            // moved off a grid that was resized since the snapshot
+            continue;
+         }
+         int c = raster.color(snapshot, x, y);
+         int max = c >> 16 & 0xff;
+         if ((c >> 8 & 0xff) < max)
+         {
+            max = c >> 8 & 0xff;
+         }
+         if ((c & 0xff) < max)
+         {
+            max = c & 0xff;
+         }
+         if (targetColors[max] == null)
+         {
+            targetColors[max] = new Color(255 - max, 255 - max, 255 - max);
+         }
+         graphicsBuffer.setColor(targetColors[max]);
+         int targetLeft = (int) (scaleWidth * (.5f + x - targetRadius - left) + .5f);
+         int targetTop = (int) (scaleHeight * (.5f + y - targetRadius - top) + .5f);
+         if (targetWidth < targetOvalSize && targetHeight < targetOvalSize)
+         {
+            graphicsBuffer.fillRect(targetLeft, targetTop, targetWidth, targetHeight);
+         }
+         else
+         {
+            graphicsBuffer.fillOval(targetLeft, targetTop, targetWidth, targetHeight);
          }
       }
-
-      // draw the buffer
-      g.drawImage(imageBuffer, 0, 0, this);
-
    }
 
-   // return colliding tile position
+   // return colliding tile position, in the current view
    public Position parseMouse(int x, int y)
    {
-      Position p = new Position(x * grid.getWidth() / this.getWidth(), y * grid.getHeight() / this.getHeight());
+      Position p;
+      if (fit)
+      {
+         p = new Position(x * grid.getWidth() / this.getWidth(), y * grid.getHeight() / this.getHeight());
+      }
+      else
+      {
+         p = new Position((int) Math.floor(viewLeft + x / viewScale), (int) Math.floor(viewTop + y / viewScale));
+      }
       if (p.x < 0 || p.x >= grid.getWidth() || p.y < 0 || p.y >= grid.getHeight())
       {
          return null;
@@ -177,6 +171,45 @@ public class MapCanvas extends Canvas implements Runnable
       return p;
    }
 
+   // Shows the map from a tile at the top left of the canvas at a number of pixels per tile. Only
+   // the tiles in view are drawn, and a zoomed out view draws mean colors of squares of tiles. A
+   // scale of 0 or less fits the whole map in the canvas again.
+   public void setView(float left, float top, float scale)
+   {
+      fit = scale <= 0;
+      viewLeft = left;
+      viewTop = top;
+      viewScale = Math.min(scale, maxScale);
+      repaint();
+   }
+
+   // zoom the view by a factor, keeping the tile under a pixel in place, out to the whole map
+   public void zoom(float factor, int x, int y)
+   {
+      float fitWidth = this.getWidth() / (float) grid.getWidth();
+      float fitHeight = this.getHeight() / (float) grid.getHeight();
+      float scaleWidth = fit ? fitWidth : viewScale;
+      float scaleHeight = fit ? fitHeight : viewScale;
+      float scale = Math.min(Math.min(scaleWidth, scaleHeight) * factor, maxScale);
+      if (scale <= Math.min(fitWidth, fitHeight))
+      {
+         setView(0, 0, 0);
+         return;
+      }
+      float tileX = (fit ? 0 : viewLeft) + x / scaleWidth;
+      float tileY = (fit ? 0 : viewTop) + y / scaleHeight;
+      setView(tileX - x / scale, tileY - y / scale, scale);
+   }
+
+   // move the view by a number of pixels, unless it fits the whole map
+   public void pan(int dx, int dy)
+   {
+      if (!fit)
+      {
+         setView(viewLeft - dx / viewScale, viewTop - dy / viewScale, viewScale);
+      }
+   }
+
    // java internal
    @Override
    public void update(Graphics g)
@@ -186,7 +219,7 @@ public class MapCanvas extends Canvas implements Runnable
 
    public float[] getArrowFillX()
    {
-      return arrowFillX;
+      return MapRaster.arrowFillX;
    }
 
    public void setThreadPriority(int threadPriority)
@@ -229,13 +262,28 @@ public class MapCanvas extends Canvas implements Runnable
    public void run()
    {
       grid.start();
+      // the moves made when the grid was first seen idle, -1 while it is not
+      long idleMoves = -1;
 
       // update the grid
       // if running, repeat drawing
       while (running)
       {
          grid.move(10);
-         repaint();
+         if (!grid.isIdle())
+         {
+            idleMoves = -1;
+         }
+         else if (idleMoves < 0)
+         {
+            idleMoves = grid.getMoves();
+         }
+         // an idle grid does not change, so it is painted until a snapshot of it was painted, the
+         // view repaints itself
+         if (idleMoves < 0 || paintedEpoch < idleMoves)
+         {
+            repaint();
+         }
          try
          {
             Thread.sleep((long) (grid.period * 1000));
@@ -0,0 +1,540 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Raster of a MapCanvas. Tiles are written as pixels straight into the int array of an image,
+ * with their colors from a table of saturation and brightness, and their arrows stamped from
+ * masks drawn once for each of ANGLES directions at the current tile size. The raster shows a
+ * view of the map, only the tiles inside it are drawn. When several tiles share a pixel, cells
+ * of a mip level are drawn instead, each the mean color of a square of tiles, kept up to date
+ * with the tiles that changed. The raster keeps its pixels between snapshots, and only the
+ * blocks of tiles that changed are drawn again.
+ */
+class MapRaster
+{
+
+   // coords of the big arrow
+   final static float[] arrowFillX = new float[]
+   {
+      0, .5f, .1f, .1f, -.1f, -.1f, -.5f
+   };
+   final static float[] arrowFillY = new float[]
+   {
+      1f, .4f, .4f, -1f, -1f, .4f, .4f
+   };
+   // coords of the small arrow
+   final static float[] arrowLineX = new float[]
+   {
+      0, 0, 0, -.5f, 0f, .5f
+   };
+   final static float[] arrowLineY = new float[]
+   {
+      -1f, 1f, 1f, .4f, 1f, .4f
+   };
+   final static float arrowLength = .3f;
+   // directions an arrow is drawn in
+   private final static int ANGLES = 64;
+   // arrows are left out of tiles narrower than this many pixels
+   private final static int MIN_ARROW_SIZE = 3;
+   // steps of the speed in the brightness table
+   private final static int SPEEDS = 4096;
+   // color of each saturation (high byte) and brightness, as the color map has them
+   private final static int[] colors = new int[256 * 256];
+   // brightness of each speed step, the square root of the speed
+   private final static int[] brightness = new int[SPEEDS + 1];
+
+   static
+   {
+      for (int s = 0; s < 256; s++)
+      {
+         for (int b = 0; b < 256; b++)
+         {
+            colors[s << 8 | b] = Color.HSBtoRGB(0, s / 255f, b / 255f);
+         }
+      }
+      for (int i = 0; i <= SPEEDS; i++)
+      {
+         brightness[i] = (int) (255 * Math.sqrt(i / (float) SPEEDS) + .5f);
+      }
+   }
+   private final int width;
+   private final int height;
+   private final BufferedImage image;
+   private final int[] pixels;
+   // the view: the tile at the top left pixel, and pixels per tile
+   private float left = 0;
+   private float top = 0;
+   private float scaleX = 1;
+   private float scaleY = 1;
+   // the map size, connection and view the layout was made for
+   private int mapWidth = -1;
+   private int mapHeight = -1;
+   private Position[] arrowDir = null;
+   private boolean viewChanged = true;
+   // the mip level shown, a cell is 1 << level tiles square, and the cells inside the view
+   private int level = 0;
+   private int fromCellX = 0;
+   private int fromCellY = 0;
+   private int toCellX = 0;
+   private int toCellY = 0;
+   // the left and top pixel of each cell in the view and of the one after, outside the raster
+   // for cells partly inside it
+   private int[] columnStart = new int[1];
+   private int[] rowStart = new int[1];
+   // the cell of each pixel column and row, -1 outside the map
+   private int[] columnCell = new int[0];
+   private int[] rowCell = new int[0];
+   // the mean colors of the cells of each mip level from 1, and their widths
+   private int[][] mips = null;
+   private int[] mipWidth = null;
+   // the snapshot drawn last
+   private FieldSnapshot rendered = null;
+   // pixel offsets of the arrow of each direction, their points as dy << 16 | dx, the size they
+   // were drawn for and the directions of the states
+   private int[][] arrows = null;
+   private int[][] arrowPoints = null;
+   private int arrowWidth = 0;
+   private int arrowHeight = 0;
+   private int[] stateAngle = new int[0];
+
+   public MapRaster(int width, int height)
+   {
+      this.width = width;
+      this.height = height;
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+   }
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public int getHeight()
+   {
+      return height;
+   }
+
+   public BufferedImage getImage()
+   {
+      return image;
+   }
+
+   // show the map from a tile at the top left pixel, at a number of pixels per tile
+   public void setView(float left, float top, float scaleX, float scaleY)
+   {
+      if (left != this.left || top != this.top || scaleX != this.scaleX || scaleY != this.scaleY)
+      {
+         this.left = left;
+         this.top = top;
+         this.scaleX = scaleX;
+         this.scaleY = scaleY;
+         viewChanged = true;
+      }
+   }
+
+   // Draws the tiles and arrows of a snapshot inside the view. Only the blocks of tiles that
+   // changed since the snapshot drawn last are drawn again, unless the map or the view changed.
+   public void render(FieldSnapshot snapshot)
+   {
+      boolean relaid = layout(snapshot);
+      // the mip levels follow all tiles, the tiles themselves only those in view
+      boolean[] changed;
+      if (level > 0)
+      {
+         changed = snapshot.getChangedBlocks(rendered);
+      }
+      else
+      {
+         changed = snapshot.getChangedBlocks(rendered, fromCellX, fromCellY, toCellX, toCellY);
+      }
+      rendered = snapshot;
+      if (level > 0)
+      {
+         updateMips(snapshot, changed);
+      }
+      else
+      {
+         mips = null;
+      }
+      if (relaid || changed == null)
+      {
+         Arrays.fill(pixels, 0);
+         region(snapshot, fromCellX, fromCellY, toCellX, toCellY);
+         return;
+      }
+      int blocksWide = (mapWidth + FieldSnapshot.BLOCK_SIZE - 1) / FieldSnapshot.BLOCK_SIZE;
+      for (int block = 0; block < changed.length; block++)
+      {
+         if (!changed[block])
+         {
+            continue;
+         }
+         // the run of changed blocks in this block row
+         int first = block;
+         while (block + 1 < changed.length && changed[block + 1] && (block + 1) % blocksWide != 0)
+         {
+            block++;
+         }
+         int fromX = first % blocksWide * FieldSnapshot.BLOCK_SIZE;
+         int fromY = first / blocksWide * FieldSnapshot.BLOCK_SIZE;
+         int toX = Math.min((block % blocksWide + 1) * FieldSnapshot.BLOCK_SIZE, mapWidth);
+         int toY = Math.min(fromY + FieldSnapshot.BLOCK_SIZE, mapHeight);
+         // the cells of those tiles inside the view
+         int cellFromX = Math.max(fromX >> level, fromCellX);
+         int cellFromY = Math.max(fromY >> level, fromCellY);
+         int cellToX = Math.min(((toX - 1) >> level) + 1, toCellX);
+         int cellToY = Math.min(((toY - 1) >> level) + 1, toCellY);
+         if (cellFromX < cellToX && cellFromY < cellToY)
+         {
+            region(snapshot, cellFromX, cellFromY, cellToX, cellToY);
+         }
+      }
+   }
+
+   // the color of a tile of a snapshot, as in its color map
+   public int color(FieldSnapshot snapshot, int x, int y)
+   {
+      return color(snapshot.state(x, y), snapshot.time(x, y), snapshot.speed(x, y), snapshot.getFadeTime());
+   }
+
+   private static int color(int state, float time, float tileSpeed, float fadeTime)
+   {
+      int saturation = FieldSnapshot.saturation(state, time, fadeTime);
+      int level = tileSpeed >= 1 ? 255 : tileSpeed > 0 ? brightness[(int) (tileSpeed * SPEEDS + .5f)] : 0;
+      return colors[saturation << 8 | level];
+   }
+
+   // draw the tiles or mip cells and arrows of a region of cells into their pixels
+   private void region(FieldSnapshot snapshot, int fromX, int fromY, int toX, int toY)
+   {
+      int[] mip = level > 0 ? mips[level] : null;
+      int cellsWide = level > 0 ? mipWidth[level] : 0;
+      int leftPixel = clamp(columnStart[fromX - fromCellX], width);
+      int rightPixel = clamp(columnStart[toX - fromCellX], width);
+      int topPixel = clamp(rowStart[fromY - fromCellY], height);
+      int bottomPixel = clamp(rowStart[toY - fromCellY], height);
+
+      // cell colors, a pixel row is copied from the one above when it shows the same cells
+      for (int y = topPixel; y < bottomPixel; y++)
+      {
+         int row = y * width;
+         if (y > topPixel && rowCell[y] == rowCell[y - 1])
+         {
+            System.arraycopy(pixels, row - width + leftPixel, pixels, row + leftPixel, rightPixel - leftPixel);
+            continue;
+         }
+         int cellY = rowCell[y];
+         int lastCell = -1;
+         int color = 0;
+         for (int x = leftPixel; x < rightPixel; x++)
+         {
+            int cell = columnCell[x];
+            if (cell != lastCell)
+            {
+               color = mip != null ? mip[cellY * cellsWide + cell] : color(snapshot, cell, cellY);
+               lastCell = cell;
+            }
+            pixels[row + x] = color;
+         }
+      }
+
+      // arrows, stamped at the top left pixel of their tiles
+      if (arrows == null)
+      {
+         return;
+      }
+      for (int y = fromY; y < toY; y++)
+      {
+         int originY = rowStart[y - fromCellY];
+         for (int x = fromX; x < toX; x++)
+         {
+            int arrow;
+            float angle = snapshot.angle(x, y);
+            if (angle >= 0)
+            {
+               arrow = (int) (angle * (ANGLES / 6.283185f) + .5f) % ANGLES;
+            }
+            else
+            {
+               int tileState = snapshot.direction(x, y);
+               if (tileState == 0)
+               {
+                  continue;
+               }
+               arrow = stateAngle[tileState - 1];
+            }
+            stamp(arrow, columnStart[x - fromCellX], originY);
+         }
+      }
+   }
+
+   // stamp an arrow with its top left at a pixel, clipped to the raster
+   private void stamp(int arrow, int originX, int originY)
+   {
+      if (originX >= 0 && originY >= 0 && originX + arrowWidth <= width && originY + arrowHeight <= height)
+      {
+         int[] offsets = arrows[arrow];
+         int origin = originY * width + originX;
+         for (int i = 0; i < offsets.length; i++)
+         {
+            pixels[origin + offsets[i]] = 0xff000000;
+         }
+         return;
+      }
+      int[] points = arrowPoints[arrow];
+      for (int i = 0; i < points.length; i++)
+      {
+         int x = originX + (points[i] & 0xffff);
+         int y = originY + (points[i] >> 16);
+         if (x >= 0 && x < width && y >= 0 && y < height)
+         {
+            pixels[y * width + x] = 0xff000000;
+         }
+      }
+   }
+
+   // the mip levels up to the one shown, built again or updated for the blocks that changed
+   private void updateMips(FieldSnapshot snapshot, boolean[] changed)
+   {
+      if (mips == null || mips.length <= level || changed == null)
+      {
+         mips = new int[level + 1][];
+         mipWidth = new int[level + 1];
+         for (int k = 1; k <= level; k++)
+         {
+            mipWidth[k] = (mapWidth + (1 << k) - 1) >> k;
+            mips[k] = new int[mipWidth[k] * ((mapHeight + (1 << k) - 1) >> k)];
+         }
+         updateMips(snapshot, 0, 0, mapWidth, mapHeight);
+         return;
+      }
+      int blocksWide = (mapWidth + FieldSnapshot.BLOCK_SIZE - 1) / FieldSnapshot.BLOCK_SIZE;
+      for (int block = 0; block < changed.length; block++)
+      {
+         if (changed[block])
+         {
+            int fromX = block % blocksWide * FieldSnapshot.BLOCK_SIZE;
+            int fromY = block / blocksWide * FieldSnapshot.BLOCK_SIZE;
+            updateMips(snapshot, fromX, fromY, Math.min(fromX + FieldSnapshot.BLOCK_SIZE, mapWidth), Math.min(fromY + FieldSnapshot.BLOCK_SIZE, mapHeight));
+         }
+      }
+   }
+
+   // the cells of all mip levels over a region of tiles, each the mean of its cells a level down
+   private void updateMips(FieldSnapshot snapshot, int fromX, int fromY, int toX, int toY)
+   {
+      for (int k = 1; k < mips.length; k++)
+      {
+         int[] mip = mips[k];
+         int[] below = mips[k - 1];
+         int belowWidth = k > 1 ? mipWidth[k - 1] : mapWidth;
+         int belowHeight = k > 1 ? (mapHeight + (1 << (k - 1)) - 1) >> (k - 1) : mapHeight;
+         int cellToX = ((toX - 1) >> k) + 1;
+         int cellToY = ((toY - 1) >> k) + 1;
+         for (int y = fromY >> k; y < cellToY; y++)
+         {
+            for (int x = fromX >> k; x < cellToX; x++)
+            {
+               int red = 0;
+               int green = 0;
+               int blue = 0;
+               int count = 0;
+               for (int dy = 0; dy < 2 && 2 * y + dy < belowHeight; dy++)
+               {
+                  for (int dx = 0; dx < 2 && 2 * x + dx < belowWidth; dx++)
+                  {
+                     int c = k > 1 ? below[(2 * y + dy) * belowWidth + 2 * x + dx] : color(snapshot, 2 * x + dx, 2 * y + dy);
+                     red += c >> 16 & 0xff;
+                     green += c >> 8 & 0xff;
+                     blue += c & 0xff;
+                     count++;
+                  }
+               }
+               mip[y * mipWidth[k] + x] = 0xff000000 | red / count << 16 | green / count << 8 | blue / count;
+            }
+         }
+      }
+   }
+
+   // the level, cells and pixels of the view, and arrow masks for its tile size, when the map
+   // size, connection or view changed, returns whether they did
+   private boolean layout(FieldSnapshot snapshot)
+   {
+      Position[] dir = snapshot.getConnection();
+      if (snapshot.getWidth() == mapWidth && snapshot.getHeight() == mapHeight && dir == arrowDir && !viewChanged)
+      {
+         return false;
+      }
+      if (snapshot.getWidth() != mapWidth || snapshot.getHeight() != mapHeight)
+      {
+         mips = null;
+      }
+      mapWidth = snapshot.getWidth();
+      mapHeight = snapshot.getHeight();
+      viewChanged = false;
+
+      // the coarsest level with cells of at most a pixel, or tiles when they are over half a pixel
+      float scale = Math.min(scaleX, scaleY);
+      level = 0;
+      while (scale * (1 << level) <= .5f && 1 << level < Math.max(mapWidth, mapHeight))
+      {
+         level++;
+      }
+      fromCellX = visibleFrom(left, mapWidth);
+      toCellX = Math.max(fromCellX, visibleTo(left + width / scaleX, mapWidth));
+      fromCellY = visibleFrom(top, mapHeight);
+      toCellY = Math.max(fromCellY, visibleTo(top + height / scaleY, mapHeight));
+      columnStart = starts(fromCellX, toCellX, left, scaleX, mapWidth);
+      columnCell = cells(columnStart, fromCellX, width);
+      rowStart = starts(fromCellY, toCellY, top, scaleY, mapHeight);
+      rowCell = cells(rowStart, fromCellY, height);
+
+      arrowDir = dir;
+      stateAngle = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         stateAngle[i] = (int) (FieldSnapshot.angle(dir[i]) * (ANGLES / 6.283185f) + .5f) % ANGLES;
+      }
+      int cellWidth = (int) scaleX;
+      int cellHeight = (int) scaleY;
+      if (level > 0 || cellWidth < MIN_ARROW_SIZE || cellHeight < MIN_ARROW_SIZE)
+      {
+         arrows = null;
+      }
+      else if (arrows == null || cellWidth != arrowWidth || cellHeight != arrowHeight)
+      {
+         masks(cellWidth, cellHeight);
+      }
+      return true;
+   }
+
+   // the first cell of the level inside a view starting at a tile
+   private int visibleFrom(float from, int tiles)
+   {
+      return Math.min(Math.max((int) Math.floor(from), 0), tiles) >> level;
+   }
+
+   // the cell of the level after the last inside a view ending at a tile
+   private int visibleTo(float to, int tiles)
+   {
+      int tile = Math.min(Math.max((int) Math.ceil(to), 0), tiles);
+      return (tile + (1 << level) - 1) >> level;
+   }
+
+   // the first pixel of each cell from a view starting at a tile, and of the one after
+   private int[] starts(int fromCell, int toCell, float from, float scale, int tiles)
+   {
+      int[] result = new int[toCell - fromCell + 1];
+      for (int i = 0; i < result.length; i++)
+      {
+         int tile = Math.min((fromCell + i) << level, tiles);
+         result[i] = (int) Math.floor((tile - from) * scale);
+      }
+      return result;
+   }
+
+   // the cell of each pixel, -1 for pixels outside the map
+   private static int[] cells(int[] starts, int fromCell, int pixels)
+   {
+      int[] result = new int[pixels];
+      Arrays.fill(result, -1);
+      for (int i = 0; i < starts.length - 1; i++)
+      {
+         for (int pixel = clamp(starts[i], pixels); pixel < clamp(starts[i + 1], pixels); pixel++)
+         {
+            result[pixel] = fromCell + i;
+         }
+      }
+      return result;
+   }
+
+   private static int clamp(int pixel, int pixels)
+   {
+      return pixel < 0 ? 0 : pixel > pixels ? pixels : pixel;
+   }
+
+   // the pixel offsets and points of the arrow of each direction in a tile of the given size
+   private void masks(int cellWidth, int cellHeight)
+   {
+      BufferedImage cell = new BufferedImage(cellWidth, cellHeight, BufferedImage.TYPE_INT_RGB);
+      int[] cellPixels = ((DataBufferInt) cell.getRaster().getDataBuffer()).getData();
+      Graphics graphics = cell.createGraphics();
+      int[] transformedX = new int[arrowFillX.length];
+      int[] transformedY = new int[arrowFillX.length];
+      arrows = new int[ANGLES][];
+      arrowPoints = new int[ANGLES][];
+      arrowWidth = cellWidth;
+      arrowHeight = cellHeight;
+      for (int a = 0; a < ANGLES; a++)
+      {
+         graphics.setColor(Color.black);
+         graphics.fillRect(0, 0, cellWidth, cellHeight);
+         graphics.setColor(Color.white);
+         float cos = arrowLength * (float) Math.cos(a * 6.283185f / ANGLES);
+         float sin = arrowLength * (float) Math.sin(a * 6.283185f / ANGLES);
+         if (cellWidth * cellHeight > 1000)
+         {
+            for (int i = 0; i < arrowFillX.length; i++)
+            {
+               transformedX[i] = (int) (cellWidth * (.5f + cos * arrowFillX[i] - sin * arrowFillY[i]) + .5f);
+               transformedY[i] = (int) (cellHeight * (.5f + sin * arrowFillX[i] + cos * arrowFillY[i]) + .5f);
+            }
+            graphics.fillPolygon(transformedX, transformedY, arrowFillX.length);
+         }
+         else
+         {
+            for (int i = 0; i < arrowLineY.length - 1; i += 2)
+            {
+               int beginx = (int) (cellWidth * (.5f + cos * arrowLineX[i] - sin * arrowLineY[i]) + .5f);
+               int beginy = (int) (cellHeight * (.5f + sin * arrowLineX[i] + cos * arrowLineY[i]) + .5f);
+               int endx = (int) (cellWidth * (.5f + cos * arrowLineX[i + 1] - sin * arrowLineY[i + 1]) + .5f);
+               int endy = (int) (cellHeight * (.5f + sin * arrowLineX[i + 1] + cos * arrowLineY[i + 1]) + .5f);
+               graphics.drawLine(beginx, beginy, endx, endy);
+            }
+         }
+         int count = 0;
+         int[] offsets = new int[cellWidth * cellHeight];
+         int[] points = new int[cellWidth * cellHeight];
+         for (int y = 0; y < cellHeight; y++)
+         {
+            for (int x = 0; x < cellWidth; x++)
+            {
+               if ((cellPixels[y * cellWidth + x] & 0xffffff) != 0)
+               {
+                  offsets[count] = y * width + x;
+                  points[count++] = y << 16 | x;
+               }
+            }
+         }
+         arrows[a] = Arrays.copyOf(offsets, count);
+         arrowPoints[a] = Arrays.copyOf(points, count);
+      }
+      graphics.dispose();
+   }
+}
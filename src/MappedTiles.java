@@ -0,0 +1,498 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Memory mapped tile storage of a DstarGrid. The speeds are mapped from a terrain file, the scent
+ * from a temporary file. Tiles are stored in blocks, and only blocks with scent are moved, so only
+ * the terrain around the scent is paged in.
+ */
+class MappedTiles implements TileStorage
+{
+
+   // blocks are SIZE x SIZE tiles, stored one after the other
+   private final static int SHIFT = 6;
+   private final static int SIZE = 1 << SHIFT;
+   private final static int MASK = SIZE - 1;
+   private final static int BLOCK_TILES = SIZE * SIZE;
+   private final static int BLOCK_BYTES = 4 * BLOCK_TILES;
+   // row length of the window a block is moved in, padded with a one tile halo
+   private final static int STRIDE = SIZE + 2;
+   // blocks per mapped segment, so segments stay well below 2 GB
+   private final static int SEGMENT_SHIFT = 14;
+   private final static long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+   // the terrain file starts with a page holding MAGIC, width and height
+   private final static int HEADER = 4096;
+   private final static int MAGIC = 0x44737472;
+   // the grid that owns these tiles
+   private DstarGrid grid = null;
+   // grid size
+   private int width = 0;
+   private int height = 0;
+   // number of blocks
+   private long blocksX = 0;
+   private long blocks = 0;
+   // mapped speeds, and the mapped state and time of both buffers
+   private FloatBuffer[] tileSpeed = null;
+   private IntBuffer[][] tileState = new IntBuffer[2][];
+   private FloatBuffer[][] tileTime = new FloatBuffer[2][];
+   // the buffer holding the current scent
+   private int front = 0;
+   // the blocks with scent, these are moved
+   private long[] awake = new long[16];
+   private int awakeSize = 0;
+   private long[] awakeMark = null;
+   private boolean[] idle = new boolean[16];
+   // the window a block is moved in
+   private int[] windowState = new int[STRIDE * STRIDE];
+   private float[] windowTime = new float[STRIDE * STRIDE];
+   private float[] windowSpeed = new float[STRIDE * STRIDE];
+   private float[] windowCost = new float[STRIDE * STRIDE];
+   private int[] outState = new int[STRIDE * STRIDE];
+   private float[] outTime = new float[STRIDE * STRIDE];
+   private final static int[] emptyState = new int[BLOCK_TILES];
+   private final static float[] emptyTime = new float[BLOCK_TILES];
+   // index offset of each direction in the window
+   private int[] diroffset = null;
+   // the snapshot blocks to mark, or null
+   private boolean[] changed = null;
+
+   // map an existing terrain file
+   public static MappedTiles open(DstarGrid grid, File file) throws IOException
+   {
+      RandomAccessFile terrain = new RandomAccessFile(file, "rw");
+      try
+      {
+         if (terrain.length() < HEADER || terrain.readInt() != MAGIC)
+         {
+            throw new IOException("Not a terrain file: " + file);
+         }
+         int width = terrain.readInt();
+         int height = terrain.readInt();
+         return new MappedTiles(grid, terrain.getChannel(), width, height);
+      }
+      finally
+      {
+         terrain.close();
+      }
+   }
+
+   // create a terrain file with all speeds 0 and map it
+   public static MappedTiles create(DstarGrid grid, File file, int width, int height) throws IOException
+   {
+      RandomAccessFile terrain = new RandomAccessFile(file, "rw");
+      try
+      {
+         terrain.setLength(0);
+         terrain.writeInt(MAGIC);
+         terrain.writeInt(width);
+         terrain.writeInt(height);
+         return new MappedTiles(grid, terrain.getChannel(), width, height);
+      }
+      finally
+      {
+         terrain.close();
+      }
+   }
+
+   private MappedTiles(DstarGrid grid, FileChannel terrain, int width, int height) throws IOException
+   {
+      this.grid = grid;
+      this.width = width;
+      this.height = height;
+      blocksX = (width + MASK) >> SHIFT;
+      blocks = blocksX * ((height + MASK) >> SHIFT);
+      awakeMark = new long[(int) ((blocks + 63) >>> 6)];
+
+      tileSpeed = mapFloats(terrain, HEADER);
+
+      // the scent lives in a temporary file, removed as soon as it is mapped where possible
+      File file = File.createTempFile("dstar", ".scent");
+      file.deleteOnExit();
+      RandomAccessFile scent = new RandomAccessFile(file, "rw");
+      try
+      {
+         long layer = blocks * BLOCK_BYTES;
+         tileState[0] = mapInts(scent.getChannel(), 0);
+         tileTime[0] = mapFloats(scent.getChannel(), layer);
+         tileState[1] = mapInts(scent.getChannel(), 2 * layer);
+         tileTime[1] = mapFloats(scent.getChannel(), 3 * layer);
+      }
+      finally
+      {
+         scent.close();
+         file.delete();
+      }
+   }
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public int getHeight()
+   {
+      return height;
+   }
+
+   public int getState(int x, int y)
+   {
+      long block = block(x, y);
+      return tileState[front][segment(block)].get(index(block, x, y));
+   }
+
+   public float getTime(int x, int y)
+   {
+      long block = block(x, y);
+      return tileTime[front][segment(block)].get(index(block, x, y));
+   }
+
+   public float getSpeed(int x, int y)
+   {
+      long block = block(x, y);
+      return tileSpeed[segment(block)].get(index(block, x, y));
+   }
+
+   public boolean isEmpty(int fromX, int fromY, int toX, int toY)
+   {
+      // both buffers of a block are cleared when it goes to sleep
+      for (int y = fromY >> SHIFT; y <= (toY - 1) >> SHIFT; y++)
+      {
+         for (int x = fromX >> SHIFT; x <= (toX - 1) >> SHIFT; x++)
+         {
+            long block = y * blocksX + x;
+            if ((awakeMark[(int) (block >>> 6)] & (1L << block)) != 0)
+            {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   public int getAwakeCount()
+   {
+      return awakeSize;
+   }
+
+   public void setSpeed(int x, int y, float speed)
+   {
+      long block = block(x, y);
+      tileSpeed[segment(block)].put(index(block, x, y), speed);
+   }
+
+   public void setSpeed(float speed)
+   {
+      float[] values = new float[BLOCK_TILES];
+      Arrays.fill(values, speed);
+      for (long block = 0; block < blocks; block++)
+      {
+         FloatBuffer buffer = tileSpeed[segment(block)];
+         buffer.position(index(block, 0, 0));
+         buffer.put(values);
+      }
+   }
+
+   // recalculate offsets and pick a random direction for all timed tiles
+   public void setConnection(Position[] dir)
+   {
+      diroffset = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         diroffset[i] = dir[i].y * STRIDE + dir[i].x;
+      }
+      for (int a = 0; a < awakeSize; a++)
+      {
+         int segment = segment(awake[a]);
+         int begin = index(awake[a], 0, 0);
+         for (int index = begin; index < begin + BLOCK_TILES; index++)
+         {
+            if (tileTime[front][segment].get(index) > 0)
+            {
+               tileState[front][segment].put(index, (int) (grid.getRandom().nextDouble() * dir.length + 1));
+            }
+         }
+      }
+   }
+
+   // put a target, waking its block
+   public void putTarget(int x, int y, int state)
+   {
+      long block = block(x, y);
+      wake(block);
+      tileState[front][segment(block)].put(index(block, x, y), state);
+      tileTime[front][segment(block)].put(index(block, x, y), 0f);
+      if (changed != null)
+      {
+         FieldSnapshot.mark(changed, width, x, y, x + 1, y + 1);
+      }
+   }
+
+   public void setChanged(boolean[] changed)
+   {
+      this.changed = changed;
+   }
+
+   // one step of all awake blocks, sleeping blocks can not change
+   public void move()
+   {
+      // wake the blocks the scent can flow into
+      int count = awakeSize;
+      for (int a = 0; a < count; a++)
+      {
+         wakeNeighbors(awake[a]);
+      }
+
+      int back = 1 - front;
+      for (int a = 0; a < awakeSize; a++)
+      {
+         long block = awake[a];
+         int segment = segment(block);
+         int begin = index(block, 0, 0);
+         int fromX = (int) (block % blocksX) << SHIFT;
+         int fromY = (int) (block / blocksX) << SHIFT;
+         int columns = Math.min(SIZE, width - fromX);
+         int rows = Math.min(SIZE, height - fromY);
+         if (changed != null)
+         {
+            FieldSnapshot.mark(changed, width, fromX, fromY, fromX + columns, fromY + rows);
+         }
+
+         // read the block and its halo into the window
+         for (int y = 0; y < SIZE; y++)
+         {
+            int index = (y + 1) * STRIDE + 1;
+            read(tileState[front][segment], begin + y * SIZE, windowState, index);
+            read(tileTime[front][segment], begin + y * SIZE, windowTime, index);
+            read(tileSpeed[segment], begin + y * SIZE, windowSpeed, index);
+         }
+         for (int i = -1; i <= SIZE; i++)
+         {
+            readHalo(fromX, fromY, i, -1);
+            readHalo(fromX, fromY, i, SIZE);
+            readHalo(fromX, fromY, -1, i);
+            readHalo(fromX, fromY, SIZE, i);
+         }
+         for (int index = 0; index < windowSpeed.length; index++)
+         {
+            windowCost[index] = 1 / windowSpeed[index];
+         }
+
+         boolean empty = true;
+         for (int y = 0; y < rows; y++)
+         {
+            int index = (y + 1) * STRIDE + 1;
+            long tile = grid.tile(fromX, fromY + y) - index;
+            for (int end = index + columns; index < end; index++)
+            {
+               grid.update(index, tile + index, windowState, windowTime, windowSpeed, windowCost, diroffset, outState, outTime);
+               empty = empty && outState[index] == 0 && outTime[index] == 0;
+            }
+         }
+         idle[a] = empty;
+
+         for (int y = 0; y < rows; y++)
+         {
+            int index = (y + 1) * STRIDE + 1;
+            IntBuffer state = tileState[back][segment];
+            state.position(begin + y * SIZE);
+            state.put(outState, index, columns);
+            FloatBuffer time = tileTime[back][segment];
+            time.position(begin + y * SIZE);
+            time.put(outTime, index, columns);
+         }
+      }
+
+      // swap buffers and put idle blocks to sleep, clearing both buffers
+      front = back;
+      back = 1 - front;
+      int size = 0;
+      for (int a = 0; a < awakeSize; a++)
+      {
+         long block = awake[a];
+         if (idle[a])
+         {
+            int segment = segment(block);
+            tileState[back][segment].position(index(block, 0, 0));
+            tileState[back][segment].put(emptyState);
+            tileTime[back][segment].position(index(block, 0, 0));
+            tileTime[back][segment].put(emptyTime);
+            awakeMark[(int) (block >>> 6)] &= ~(1L << block);
+         }
+         else
+         {
+            awake[size++] = block;
+         }
+      }
+      awakeSize = size;
+   }
+
+   // wake the neighbors of a block that have live tiles along their shared edge
+   private void wakeNeighbors(long block)
+   {
+      int fromX = (int) (block % blocksX) << SHIFT;
+      int fromY = (int) (block / blocksX) << SHIFT;
+      for (int dy = -1; dy <= 1; dy++)
+      {
+         for (int dx = -1; dx <= 1; dx++)
+         {
+            int x = dx < 0 ? fromX - 1 : dx > 0 ? fromX + SIZE : fromX;
+            int y = dy < 0 ? fromY - 1 : dy > 0 ? fromY + SIZE : fromY;
+            if ((dx == 0 && dy == 0) || x < 0 || x >= width || y < 0 || y >= height)
+            {
+               continue;
+            }
+            long neighbor = block(x, y);
+            if ((awakeMark[(int) (neighbor >>> 6)] & (1L << neighbor)) != 0)
+            {
+               continue;
+            }
+            // the edge (or corner) facing the neighbor
+            int edgeX = dx < 0 ? fromX : dx > 0 ? fromX + SIZE - 1 : fromX;
+            int toX = dx == 0 ? Math.min(fromX + SIZE, width) - 1 : edgeX;
+            int edgeY = dy < 0 ? fromY : dy > 0 ? fromY + SIZE - 1 : fromY;
+            int toY = dy == 0 ? Math.min(fromY + SIZE, height) - 1 : edgeY;
+            boolean live = false;
+            for (int ey = edgeY; ey <= toY && !live; ey++)
+            {
+               for (int ex = edgeX; ex <= toX && !live; ex++)
+               {
+                  live = getState(ex, ey) != 0;
+               }
+            }
+            if (live)
+            {
+               wake(neighbor);
+            }
+         }
+      }
+   }
+
+   // read a neighbor tile into the halo of the window
+   private void readHalo(int fromX, int fromY, int x, int y)
+   {
+      int index = (y + 1) * STRIDE + x + 1;
+      x += fromX;
+      y += fromY;
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         windowSpeed[index] = 0;
+         windowState[index] = 0;
+         windowTime[index] = 0;
+      }
+      else
+      {
+         windowSpeed[index] = getSpeed(x, y);
+         windowState[index] = getState(x, y);
+         windowTime[index] = getTime(x, y);
+      }
+   }
+
+   // add a block to the awake blocks, its buffers are empty while asleep
+   private void wake(long block)
+   {
+      long bit = 1L << block;
+      if ((awakeMark[(int) (block >>> 6)] & bit) == 0)
+      {
+         awakeMark[(int) (block >>> 6)] |= bit;
+         if (awakeSize == awake.length)
+         {
+            awake = Arrays.copyOf(awake, 2 * awakeSize);
+            idle = new boolean[awake.length];
+         }
+         awake[awakeSize++] = block;
+      }
+   }
+
+   private static void read(IntBuffer buffer, int position, int[] window, int index)
+   {
+      buffer.position(position);
+      buffer.get(window, index, SIZE);
+   }
+
+   private static void read(FloatBuffer buffer, int position, float[] window, int index)
+   {
+      buffer.position(position);
+      buffer.get(window, index, SIZE);
+   }
+
+   // block number of a tile
+   private long block(int x, int y)
+   {
+      return (y >> SHIFT) * blocksX + (x >> SHIFT);
+   }
+
+   // mapped segment of a block
+   private static int segment(long block)
+   {
+      return (int) (block >> SEGMENT_SHIFT);
+   }
+
+   // index of a tile in the segment of its block
+   private static int index(long block, int x, int y)
+   {
+      return (int) ((block & SEGMENT_MASK) * BLOCK_TILES) + ((y & MASK) << SHIFT) + (x & MASK);
+   }
+
+   // map a layer of all blocks as segments, starting at the given file position
+   private ByteBuffer[] map(FileChannel channel, long position) throws IOException
+   {
+      ByteBuffer[] result = new ByteBuffer[segment(blocks - 1) + 1];
+      for (int i = 0; i < result.length; i++)
+      {
+         long first = (long) i << SEGMENT_SHIFT;
+         long size = Math.min(blocks - first, 1L << SEGMENT_SHIFT) * BLOCK_BYTES;
+         result[i] = channel.map(FileChannel.MapMode.READ_WRITE, position + first * BLOCK_BYTES, size);
+      }
+      return result;
+   }
+
+   private FloatBuffer[] mapFloats(FileChannel channel, long position) throws IOException
+   {
+      ByteBuffer[] segments = map(channel, position);
+      FloatBuffer[] result = new FloatBuffer[segments.length];
+      for (int i = 0; i < segments.length; i++)
+      {
+         result[i] = segments[i].asFloatBuffer();
+      }
+      return result;
+   }
+
+   private IntBuffer[] mapInts(FileChannel channel, long position) throws IOException
+   {
+      ByteBuffer[] segments = map(channel, position);
+      IntBuffer[] result = new IntBuffer[segments.length];
+      for (int i = 0; i < segments.length; i++)
+      {
+         result[i] = segments[i].asIntBuffer();
+      }
+      return result;
+   }
+}
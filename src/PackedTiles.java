@@ -0,0 +1,232 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * Packed tile storage of a DstarGrid. The state and time of a tile share one int: the state in
+ * the low STATE_BITS, the time in fixed point above it. The fixed point range is twice the fade
+ * time, later times are stored as the maximum, as their tiles are empty anyway.
+ */
+class PackedTiles implements TileStorage
+{
+
+   final static int STATE_BITS = 4;
+   final static int STATE_MASK = (1 << STATE_BITS) - 1;
+   // largest time in fixed point units
+   private final static int TIME_UNITS = (1 << (32 - STATE_BITS)) - 1;
+   // the grid that owns these tiles
+   private DstarGrid grid = null;
+   // grid size
+   private int width = 0;
+   private int height = 0;
+   // row length of the padded arrays, laid out like the tile arrays of the grid
+   private int stride = 0;
+   // the packed field and its back buffer
+   private int[] tileField = null;
+   private int[] nextField = null;
+   private float[] tileSpeed = null;
+   private float[] tileCost = null;
+   // fixed point units per second, and the fade time it was chosen for
+   private float scale = 0;
+   private float scaleFadeTime = 0;
+   // index offset of each direction
+   private int[] diroffset = null;
+   // the snapshot blocks to mark, or null
+   private boolean[] changed = null;
+   // the rows of the field
+   private final DstarGrid.Rows rows = new DstarGrid.Rows()
+   {
+
+      public void sweep(int fromY, int toY)
+      {
+         for (int y = fromY; y < toY; y++)
+         {
+            int index = (y + 1) * stride + 1;
+            for (int end = index + width; index < end; index++)
+            {
+               grid.updatePacked(index, index, tileField, tileSpeed, tileCost, diroffset, nextField, scale);
+            }
+         }
+         if (changed != null)
+         {
+            markRows(fromY, toY);
+         }
+      }
+   };
+
+   public PackedTiles(DstarGrid grid, int width, int height)
+   {
+      this.grid = grid;
+      this.width = width;
+      this.height = height;
+      stride = width + 2;
+      int size = stride * (height + 2);
+      tileField = new int[size];
+      nextField = new int[size];
+      tileSpeed = new float[size];
+      tileCost = new float[size];
+      Arrays.fill(tileCost, Float.POSITIVE_INFINITY);
+      setScale(grid.fadeTime);
+   }
+
+   // pack a state and time, with the time in units of 1 / scale seconds
+   static int pack(int state, float time, float scale)
+   {
+      float units = time * scale + .5f;
+      return (units < TIME_UNITS ? (int) units : TIME_UNITS) << STATE_BITS | state;
+   }
+
+   public int getState(int x, int y)
+   {
+      return tileField[index(x, y)] & STATE_MASK;
+   }
+
+   public float getTime(int x, int y)
+   {
+      return (tileField[index(x, y)] >>> STATE_BITS) / scale;
+   }
+
+   public float getSpeed(int x, int y)
+   {
+      return tileSpeed[index(x, y)];
+   }
+
+   public boolean isEmpty(int fromX, int fromY, int toX, int toY)
+   {
+      return false;
+   }
+
+   public void setSpeed(int x, int y, float speed)
+   {
+      tileSpeed[index(x, y)] = speed;
+      tileCost[index(x, y)] = 1 / speed;
+   }
+
+   public void setSpeed(float speed)
+   {
+      for (int y = 0; y < height; y++)
+      {
+         int index = index(0, y);
+         Arrays.fill(tileSpeed, index, index + width, speed);
+         Arrays.fill(tileCost, index, index + width, 1 / speed);
+      }
+   }
+
+   // recalculate offsets and pick a random direction for all timed tiles
+   public void setConnection(Position[] dir)
+   {
+      diroffset = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         diroffset[i] = dir[i].y * stride + dir[i].x;
+      }
+      for (int index = 0; index < tileField.length; index++)
+      {
+         if (tileField[index] >>> STATE_BITS > 0)
+         {
+            tileField[index] = (tileField[index] & ~STATE_MASK) | (int) (grid.getRandom().nextDouble() * dir.length + 1);
+         }
+      }
+   }
+
+   public void putTarget(int x, int y, int state)
+   {
+      tileField[index(x, y)] = state;
+      if (changed != null)
+      {
+         FieldSnapshot.mark(changed, width, x, y, x + 1, y + 1);
+      }
+   }
+
+   public void setChanged(boolean[] changed)
+   {
+      this.changed = changed;
+   }
+
+   // mark the snapshot blocks of the rows fromY until toY whose packed tiles the sweep changed
+   private void markRows(int fromY, int toY)
+   {
+      int blocksWide = FieldSnapshot.blocksWide(width);
+      for (int y = fromY; y < toY; y++)
+      {
+         int row = (y >> FieldSnapshot.BLOCK_SHIFT) * blocksWide;
+         for (int blockX = 0; blockX < blocksWide; blockX++)
+         {
+            if (changed[row + blockX])
+            {
+               continue;
+            }
+            int index = index(blockX << FieldSnapshot.BLOCK_SHIFT, y);
+            int end = index + Math.min(FieldSnapshot.BLOCK_SIZE, width - (blockX << FieldSnapshot.BLOCK_SHIFT));
+            for (; index < end; index++)
+            {
+               if (nextField[index] != tileField[index])
+               {
+                  changed[row + blockX] = true;
+                  break;
+               }
+            }
+         }
+      }
+   }
+
+   public void move()
+   {
+      if (grid.fadeTime != scaleFadeTime)
+      {
+         setScale(grid.fadeTime);
+      }
+
+      grid.sweepRows(rows);
+
+      int[] swapField = tileField;
+      tileField = nextField;
+      nextField = swapField;
+   }
+
+   // choose the fixed point units for a fade time, converting the field
+   private void setScale(float fadeTime)
+   {
+      float newScale = TIME_UNITS / (2 * Math.max(fadeTime, 1e-3f));
+      for (int index = 0; index < tileField.length; index++)
+      {
+         int field = tileField[index];
+         if (field != 0)
+         {
+            tileField[index] = pack(field & STATE_MASK, (field >>> STATE_BITS) / scale, newScale);
+         }
+      }
+      scale = newScale;
+      scaleFadeTime = fadeTime;
+      if (changed != null)
+      {
+         Arrays.fill(changed, true);
+      }
+   }
+
+   // index of a tile in the padded arrays
+   private int index(int x, int y)
+   {
+      return (y + 1) * stride + x + 1;
+   }
+}
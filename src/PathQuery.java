@@ -0,0 +1,204 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Paths along the directions of a DstarGrid, read from the field of a channel in a snapshot taken
+ * between two moves, see DstarGrid.getPathQuery(). A path follows the direction of each tile until
+ * it arrives at a target, at a tile without direction (a dead end) or at a tile it visited before
+ * (a loop).
+ * Queries do not change the snapshot, so any number of threads can use it at the same time. On a
+ * hierarchical grid, a path crosses tiles without direction along the coarse field.
+ */
+public class PathQuery
+{
+
+   // results of a query that does not arrive at a target
+   public final static int DEAD_END = -1;
+   public final static int LOOP = -2;
+   public final static int OUTSIDE = -3;
+   // batches of starts are split in parts of this many starts
+   private final static int PART_STARTS = 1024;
+   private final int width;
+   private final int height;
+   private final int stride;
+   // the snapshot and channel the states are read from
+   private final FieldSnapshot snapshot;
+   private final int channel;
+   // index offset, x and y of each direction
+   private final int[] offsets;
+   private final int[] dirX;
+   private final int[] dirY;
+   // sorted indexes of the target tiles the field was moved with
+   private final int[] targets;
+   // the coarse field for tiles without direction, null when not hierarchical
+   private final CoarseField coarse;
+
+   PathQuery(FieldSnapshot snapshot, int channel, int[] targets, CoarseField coarse)
+   {
+      Position[] dir = snapshot.getConnection();
+      width = snapshot.getWidth();
+      height = snapshot.getHeight();
+      this.snapshot = snapshot;
+      this.channel = channel;
+      this.coarse = coarse;
+      stride = width + 2;
+      offsets = new int[dir.length];
+      dirX = new int[dir.length];
+      dirY = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         offsets[i] = dir[i].y * stride + dir[i].x;
+         dirX[i] = dir[i].x;
+         dirY[i] = dir[i].y;
+      }
+      this.targets = targets;
+      Arrays.sort(this.targets);
+   }
+
+   // number of steps from a tile to a target, or DEAD_END, LOOP or OUTSIDE
+   public int steps(int x, int y)
+   {
+      return path(x, y, null, null);
+   }
+
+   // Follows the path from a tile to a target, putting the tiles on it in pathX and pathY, from
+   // the start up to and including the target and as far as the arrays are long. Returns the
+   // number of steps, or DEAD_END, LOOP or OUTSIDE.
+   public int path(int x, int y, int[] pathX, int[] pathY)
+   {
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         return OUTSIDE;
+      }
+      int count = offsets.length;
+      int index = (y + 1) * stride + x + 1;
+      int length = pathX == null ? 0 : Math.min(pathX.length, pathY.length);
+      // Brent's cycle detection: the tortoise jumps to the path every power of 2 steps
+      int tortoise = index;
+      int power = 1;
+      int lambda = 0;
+      for (int steps = 0;; steps++)
+      {
+         if (steps < length)
+         {
+            pathX[steps] = x;
+            pathY[steps] = y;
+         }
+         int tileState = snapshot.state(channel, x, y);
+         if (tileState == 0 || tileState > count)
+         {
+            // ghost tiles are never targets
+            if (Arrays.binarySearch(targets, index) >= 0)
+            {
+               return steps;
+            }
+            tileState = coarse != null ? coarse.direction(x, y) : 0;
+            if (tileState == 0)
+            {
+               return DEAD_END;
+            }
+         }
+         index += offsets[tileState - 1];
+         x += dirX[tileState - 1];
+         y += dirY[tileState - 1];
+         if (index == tortoise)
+         {
+            return LOOP;
+         }
+         if (++lambda == power)
+         {
+            tortoise = index;
+            power <<= 1;
+            lambda = 0;
+         }
+      }
+   }
+
+   // the number of steps from each tile x[i], y[i] into steps[i], on the calling thread
+   public void steps(int[] x, int[] y, int[] steps)
+   {
+      steps(x, y, steps, 0, steps.length);
+   }
+
+   // the number of steps from each tile x[i], y[i] into steps[i], in parts on the pool
+   public void steps(int[] x, int[] y, int[] steps, ForkJoinPool pool)
+   {
+      pool.invoke(new StepsTask(x, y, steps, 0, steps.length));
+   }
+
+   private void steps(int[] x, int[] y, int[] steps, int from, int to)
+   {
+      for (int i = from; i < to; i++)
+      {
+         steps[i] = path(x[i], y[i], null, null);
+      }
+   }
+
+   public int getWidth()
+   {
+      return width;
+   }
+
+   public int getHeight()
+   {
+      return height;
+   }
+
+   // splits a batch of starts in halves, down to parts of PART_STARTS
+   private class StepsTask extends RecursiveAction
+   {
+
+      private static final long serialVersionUID = 1L;
+      private final int[] x;
+      private final int[] y;
+      private final int[] steps;
+      private final int from;
+      private final int to;
+
+      public StepsTask(int[] x, int[] y, int[] steps, int from, int to)
+      {
+         this.x = x;
+         this.y = y;
+         this.steps = steps;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (to - from <= PART_STARTS)
+         {
+            steps(x, y, steps, from, to);
+         }
+         else
+         {
+            int middle = (from + to) >>> 1;
+            invokeAll(new StepsTask(x, y, steps, from, middle), new StepsTask(x, y, steps, middle, to));
+         }
+      }
+   }
+}
@@ -0,0 +1,69 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+/**
+ * Seedable random numbers for a DstarGrid. Numbers are a function of the seed, a stream and a draw
+ * number, so any thread can draw any number without sharing state. Subclasses can replace next().
+ */
+public class RandomSource
+{
+
+   private final long seed;
+   // draws from the sequential stream
+   private long count = 0;
+
+   public RandomSource(long seed)
+   {
+      this.seed = seed;
+   }
+
+   public RandomSource()
+   {
+      this(System.nanoTime());
+   }
+
+   public long getSeed()
+   {
+      return seed;
+   }
+
+   // 64 random bits of a draw from a stream, SplitMix64 over the seed, stream and draw
+   public long next(long stream, long draw)
+   {
+      long z = seed + stream * 0x9e3779b97f4a7c15L + draw * 0xd1b54a32d192ed03L;
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+   }
+
+   // random number in [0, bound) of a draw from a stream
+   public int nextInt(long stream, long draw, int bound)
+   {
+      return (int) (((next(stream, draw) >>> 32) * bound) >>> 32);
+   }
+
+   // random number in [0, 1) from the sequential stream, for use outside of moves
+   public synchronized double nextDouble()
+   {
+      return (next(-1, count++) >>> 11) * 0x1.0p-53;
+   }
+}
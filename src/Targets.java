@@ -0,0 +1,251 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/**
+ * The targets of a DstarGrid and the attractors they move to, in primitive arrays. Targets added
+ * as Position objects are linked, and kept in sync with their objects each move. A spatial index
+ * of square cells finds the targets inside a rectangle of tiles.
+ */
+class Targets
+{
+
+   // side of the cells of the spatial index, as a power of 2
+   private final static int CELL_BITS = 4;
+   // target, channel and attractor of each target, read by the grid after move
+   int count = 0;
+   int[] x = new int[2];
+   int[] y = new int[2];
+   int[] channel = new int[2];
+   private int[] attractorX = new int[2];
+   private int[] attractorY = new int[2];
+   // targets linked to Position objects
+   private int linkedCount = 0;
+   private int[] linkedId = new int[2];
+   private Position[] linkedTarget = new Position[2];
+   private Position[] linkedAttractor = new Position[2];
+   // spatial index: the targets sorted by cell, and where each cell starts
+   private boolean indexValid = false;
+   private int cellsX = 0;
+   private int cellsY = 0;
+   private int[] cellStart = null;
+   private int[] cellTargets = null;
+
+   // add a target of a channel, returns its number
+   synchronized int add(int targetX, int targetY, int toX, int toY, int targetChannel)
+   {
+      if (count == x.length)
+      {
+         x = Arrays.copyOf(x, 2 * count);
+         y = Arrays.copyOf(y, 2 * count);
+         channel = Arrays.copyOf(channel, 2 * count);
+         attractorX = Arrays.copyOf(attractorX, 2 * count);
+         attractorY = Arrays.copyOf(attractorY, 2 * count);
+      }
+      x[count] = targetX;
+      y[count] = targetY;
+      channel[count] = targetChannel;
+      attractorX[count] = toX;
+      attractorY[count] = toY;
+      indexValid = false;
+      return count++;
+   }
+
+   // keep a target in sync with Position objects
+   synchronized void link(int id, Position target, Position attractor)
+   {
+      if (linkedCount == linkedId.length)
+      {
+         linkedId = Arrays.copyOf(linkedId, 2 * linkedCount);
+         linkedTarget = Arrays.copyOf(linkedTarget, 2 * linkedCount);
+         linkedAttractor = Arrays.copyOf(linkedAttractor, 2 * linkedCount);
+      }
+      linkedId[linkedCount] = id;
+      linkedTarget[linkedCount] = target;
+      linkedAttractor[linkedCount] = attractor;
+      linkedCount++;
+   }
+
+   synchronized void setAttractor(int id, int toX, int toY)
+   {
+      attractorX[id] = toX;
+      attractorY[id] = toY;
+   }
+
+   // move all targets one tile towards their attractor, within a grid of the given size
+   synchronized void move(int width, int height)
+   {
+      sync();
+
+      for (int i = 0; i < count; i++)
+      {
+         // targets put off the grid through their objects, or left off it by a smaller size, are
+         // moved onto its nearest tile first, so the grid never puts them on its ghost tiles
+         x[i] = Math.max(0, Math.min(x[i], width - 1));
+         y[i] = Math.max(0, Math.min(y[i], height - 1));
+         int dx = attractorX[i] - x[i];
+         int dy = attractorY[i] - y[i];
+
+         if (dx > 0 && x[i] < width - 1)
+         {
+            x[i]++;
+         }
+         if (dx < 0 && x[i] > 0)
+         {
+            x[i]--;
+         }
+         if (dy > 0 && y[i] < height - 1)
+         {
+            y[i]++;
+         }
+         if (dy < 0 && y[i] > 0)
+         {
+            y[i]--;
+         }
+      }
+
+      for (int i = 0; i < linkedCount; i++)
+      {
+         int id = linkedId[i];
+         linkedTarget[i].x = x[id];
+         linkedTarget[i].y = y[id];
+      }
+      indexValid = false;
+   }
+
+   // read the linked targets from their objects
+   private void sync()
+   {
+      for (int i = 0; i < linkedCount; i++)
+      {
+         int id = linkedId[i];
+         if (x[id] != linkedTarget[i].x || y[id] != linkedTarget[i].y)
+         {
+            x[id] = linkedTarget[i].x;
+            y[id] = linkedTarget[i].y;
+            indexValid = false;
+         }
+         attractorX[id] = linkedAttractor[i].x;
+         attractorY[id] = linkedAttractor[i].y;
+      }
+   }
+
+   // all targets as positions, the linked ones as their own object
+   synchronized Position[] getPositions()
+   {
+      Position[] result = new Position[count];
+      for (int i = 0; i < linkedCount; i++)
+      {
+         result[linkedId[i]] = linkedTarget[i];
+      }
+      for (int i = 0; i < count; i++)
+      {
+         if (result[i] == null)
+         {
+            result[i] = new Position(x[i], y[i]);
+         }
+      }
+      return result;
+   }
+
+   // Find the targets on the tiles fromX until toX and fromY until toY of a grid of the given
+   // size. Returns the number found, of which up to result.length are put in result.
+   synchronized int find(int fromX, int fromY, int toX, int toY, int width, int height, int[] result)
+   {
+      sync();
+      if (!indexValid || cellsX != (width >> CELL_BITS) + 1 || cellsY != (height >> CELL_BITS) + 1)
+      {
+         buildIndex(width, height);
+      }
+      fromX = Math.max(fromX, 0);
+      fromY = Math.max(fromY, 0);
+      toX = Math.min(toX, width);
+      toY = Math.min(toY, height);
+      int found = 0;
+      for (int cellY = fromY >> CELL_BITS; fromY < toY && cellY <= (toY - 1) >> CELL_BITS; cellY++)
+      {
+         for (int cellX = fromX >> CELL_BITS; fromX < toX && cellX <= (toX - 1) >> CELL_BITS; cellX++)
+         {
+            int cell = cellY * cellsX + cellX;
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++)
+            {
+               int id = cellTargets[i];
+               if (x[id] >= fromX && x[id] < toX && y[id] >= fromY && y[id] < toY)
+               {
+                  if (found < result.length)
+                  {
+                     result[found] = id;
+                  }
+                  found++;
+               }
+            }
+         }
+      }
+      return found;
+   }
+
+   // sort the targets by cell, counting the targets of each cell first
+   private void buildIndex(int width, int height)
+   {
+      cellsX = (width >> CELL_BITS) + 1;
+      cellsY = (height >> CELL_BITS) + 1;
+      int cells = cellsX * cellsY;
+      if (cellStart == null || cellStart.length != cells + 1)
+      {
+         cellStart = new int[cells + 1];
+      }
+      else
+      {
+         Arrays.fill(cellStart, 0);
+      }
+      if (cellTargets == null || cellTargets.length < count)
+      {
+         cellTargets = new int[x.length];
+      }
+
+      for (int i = 0; i < count; i++)
+      {
+         cellStart[cell(i) + 1]++;
+      }
+      for (int cell = 0; cell < cells; cell++)
+      {
+         cellStart[cell + 1] += cellStart[cell];
+      }
+      // place each target at the start of its cell, moving the start to the next cell
+      for (int i = 0; i < count; i++)
+      {
+         cellTargets[cellStart[cell(i)]++] = i;
+      }
+      System.arraycopy(cellStart, 0, cellStart, 1, cells);
+      cellStart[0] = 0;
+      indexValid = true;
+   }
+
+   // cell of a target, targets outside the grid are in the border cells
+   private int cell(int i)
+   {
+      int cellX = Math.min(Math.max(x[i], 0) >> CELL_BITS, cellsX - 1);
+      int cellY = Math.min(Math.max(y[i], 0) >> CELL_BITS, cellsY - 1);
+      return cellY * cellsX + cellX;
+   }
+}
@@ -0,0 +1,466 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+import java.util.Arrays;
+
+/** Chunked tile storage of a DstarGrid. Chunks are allocated when needed and only awake chunks move. */
+class TileChunks implements TileStorage
+{
+
+   // chunks are SIZE x SIZE tiles
+   private final static int SHIFT = 6;
+   private final static int SIZE = 1 << SHIFT;
+   private final static int MASK = SIZE - 1;
+   // row length of the chunk arrays, which are padded with a one tile halo
+   private final static int STRIDE = SIZE + 2;
+
+   /**
+    * A chunk of tiles. The speeds are always there, the scent only while awake. The speeds are
+    * filled when it is made, so snapshots that read them see them filled.
+    */
+   private static class Chunk
+   {
+
+      private final float[] tileSpeed = new float[STRIDE * STRIDE];
+      private final float[] tileCost = new float[STRIDE * STRIDE];
+      private int[] tileState = null;
+      private float[] tileTime = null;
+      private int[] nextState = null;
+      private float[] nextTime = null;
+
+      private Chunk(float speed, int columns, int rows)
+      {
+         fill(speed, columns, rows);
+      }
+
+      // set the speeds inside the grid to a speed, and 0 outside
+      private void fill(float speed, int columns, int rows)
+      {
+         Arrays.fill(tileSpeed, 0);
+         Arrays.fill(tileCost, Float.POSITIVE_INFINITY);
+         for (int y = 0; y < rows; y++)
+         {
+            int index = (y + 1) * STRIDE + 1;
+            Arrays.fill(tileSpeed, index, index + columns, speed);
+            Arrays.fill(tileCost, index, index + columns, 1 / speed);
+         }
+      }
+   }
+   // the grid that owns these chunks
+   private DstarGrid grid = null;
+   // grid size
+   private int width = 0;
+   private int height = 0;
+   // number of chunks
+   private int chunksX = 0;
+   private int chunksY = 0;
+   // all chunks, null if all speeds equal the fill speed and there is no scent
+   private Chunk[] chunks = null;
+   private float[] fillSpeed = null;
+   // the chunks with scent, these are moved
+   private int[] awake = new int[16];
+   private int awakeSize = 0;
+   // index offset of each direction in the chunk arrays
+   private int[] diroffset = null;
+   // the snapshot blocks to mark, or null
+   private boolean[] changed = null;
+
+   public TileChunks(DstarGrid grid, int width, int height)
+   {
+      this.grid = grid;
+      this.width = width;
+      this.height = height;
+      chunksX = (width + MASK) >> SHIFT;
+      chunksY = (height + MASK) >> SHIFT;
+      chunks = new Chunk[chunksX * chunksY];
+      fillSpeed = new float[chunksX * chunksY];
+   }
+
+   public float getSpeed(int x, int y)
+   {
+      Chunk chunk = chunks[chunk(x, y)];
+      if (chunk == null)
+      {
+         return fillSpeed[chunk(x, y)];
+      }
+      return chunk.tileSpeed[index(x, y)];
+   }
+
+   public float getTime(int x, int y)
+   {
+      Chunk chunk = chunks[chunk(x, y)];
+      if (chunk == null || chunk.tileTime == null)
+      {
+         return 0;
+      }
+      return chunk.tileTime[index(x, y)];
+   }
+
+   public int getState(int x, int y)
+   {
+      Chunk chunk = chunks[chunk(x, y)];
+      if (chunk == null || chunk.tileState == null)
+      {
+         return 0;
+      }
+      return chunk.tileState[index(x, y)];
+   }
+
+   public boolean isEmpty(int fromX, int fromY, int toX, int toY)
+   {
+      // the scent of a chunk is only there while it is awake
+      for (int y = fromY >> SHIFT; y <= (toY - 1) >> SHIFT; y++)
+      {
+         for (int x = fromX >> SHIFT; x <= (toX - 1) >> SHIFT; x++)
+         {
+            Chunk chunk = chunks[y * chunksX + x];
+            if (chunk != null && chunk.tileState != null)
+            {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   // number of chunks that are allocated, and that are awake
+   public int getChunkCount()
+   {
+      int count = 0;
+      for (int i = 0; i < chunks.length; i++)
+      {
+         if (chunks[i] != null)
+         {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   public int getAwakeCount()
+   {
+      return awakeSize;
+   }
+
+   public void setSpeed(int x, int y, float speed)
+   {
+      int c = chunk(x, y);
+      if (chunks[c] == null)
+      {
+         if (speed == fillSpeed[c])
+         {
+            return;
+         }
+         allocate(c);
+      }
+      chunks[c].tileSpeed[index(x, y)] = speed;
+      chunks[c].tileCost[index(x, y)] = 1 / speed;
+   }
+
+   // set the speed of all tiles, releasing the chunks without scent
+   public void setSpeed(float speed)
+   {
+      for (int c = 0; c < chunks.length; c++)
+      {
+         fillSpeed[c] = speed;
+         if (chunks[c] != null)
+         {
+            if (chunks[c].tileState == null)
+            {
+               chunks[c] = null;
+            }
+            else
+            {
+               chunks[c].fill(speed, columns(c), rows(c));
+            }
+         }
+      }
+   }
+
+   // recalculate offsets and pick a random direction for all timed tiles
+   public void setConnection(Position[] dir)
+   {
+      diroffset = new int[dir.length];
+      for (int i = 0; i < dir.length; i++)
+      {
+         diroffset[i] = dir[i].y * STRIDE + dir[i].x;
+      }
+      for (int a = 0; a < awakeSize; a++)
+      {
+         Chunk chunk = chunks[awake[a]];
+         for (int i = 0; i < chunk.tileTime.length; i++)
+         {
+            if (chunk.tileTime[i] > 0)
+            {
+               chunk.tileState[i] = (int) (grid.getRandom().nextDouble() * dir.length + 1);
+            }
+         }
+      }
+   }
+
+   // put a target, waking its chunk
+   public void putTarget(int x, int y, int state)
+   {
+      Chunk chunk = wake(chunk(x, y));
+      chunk.tileState[index(x, y)] = state;
+      chunk.tileTime[index(x, y)] = 0f;
+      if (changed != null)
+      {
+         FieldSnapshot.mark(changed, width, x, y, x + 1, y + 1);
+      }
+   }
+
+   public void setChanged(boolean[] changed)
+   {
+      this.changed = changed;
+   }
+
+   // one step of all awake chunks, sleeping chunks can not change
+   public void move()
+   {
+      // wake the chunks the scent can flow into
+      int count = awakeSize;
+      for (int a = 0; a < count; a++)
+      {
+         wakeNeighbors(awake[a]);
+      }
+
+      for (int a = 0; a < awakeSize; a++)
+      {
+         int c = awake[a];
+         Chunk chunk = chunks[c];
+         fillHalo(c);
+         int fromX = (c % chunksX) << SHIFT;
+         int fromY = (c / chunksX) << SHIFT;
+         int columns = columns(c);
+         int rows = rows(c);
+         if (changed != null)
+         {
+            FieldSnapshot.mark(changed, width, fromX, fromY, fromX + columns, fromY + rows);
+         }
+         for (int y = 0; y < rows; y++)
+         {
+            int index = (y + 1) * STRIDE + 1;
+            long tile = grid.tile(fromX, fromY + y) - index;
+            for (int end = index + columns; index < end; index++)
+            {
+               grid.update(index, tile + index, chunk.tileState, chunk.tileTime, chunk.tileSpeed, chunk.tileCost, diroffset, chunk.nextState, chunk.nextTime);
+            }
+         }
+      }
+
+      // swap buffers and put idle chunks to sleep
+      int size = 0;
+      for (int a = 0; a < awakeSize; a++)
+      {
+         int c = awake[a];
+         Chunk chunk = chunks[c];
+         int[] swapState = chunk.tileState;
+         chunk.tileState = chunk.nextState;
+         chunk.nextState = swapState;
+         float[] swapTime = chunk.tileTime;
+         chunk.tileTime = chunk.nextTime;
+         chunk.nextTime = swapTime;
+         if (idle(chunk))
+         {
+            sleep(c);
+         }
+         else
+         {
+            awake[size++] = c;
+         }
+      }
+      awakeSize = size;
+   }
+
+   // wake the neighbors of a chunk that have live tiles along their shared edge
+   private void wakeNeighbors(int c)
+   {
+      Chunk chunk = chunks[c];
+      int cx = c % chunksX;
+      int cy = c / chunksX;
+      for (int dy = -1; dy <= 1; dy++)
+      {
+         for (int dx = -1; dx <= 1; dx++)
+         {
+            int nx = cx + dx;
+            int ny = cy + dy;
+            if ((dx == 0 && dy == 0) || nx < 0 || nx >= chunksX || ny < 0 || ny >= chunksY)
+            {
+               continue;
+            }
+            int n = ny * chunksX + nx;
+            if (chunks[n] != null && chunks[n].tileState != null)
+            {
+               continue;
+            }
+            // the edge (or corner) facing the neighbor
+            int fromX = dx < 0 ? 0 : dx > 0 ? SIZE - 1 : 0;
+            int toX = dx < 0 ? 0 : SIZE - 1;
+            int fromY = dy < 0 ? 0 : dy > 0 ? SIZE - 1 : 0;
+            int toY = dy < 0 ? 0 : SIZE - 1;
+            boolean live = false;
+            for (int y = fromY; y <= toY && !live; y++)
+            {
+               for (int x = fromX; x <= toX && !live; x++)
+               {
+                  live = chunk.tileState[(y + 1) * STRIDE + x + 1] != 0;
+               }
+            }
+            if (live)
+            {
+               wake(n);
+            }
+         }
+      }
+   }
+
+   // copy the neighbor tiles into the halo of a chunk
+   private void fillHalo(int c)
+   {
+      Chunk chunk = chunks[c];
+      int fromX = (c % chunksX) << SHIFT;
+      int fromY = (c / chunksX) << SHIFT;
+      for (int i = -1; i <= SIZE; i++)
+      {
+         copyHalo(chunk, fromX, fromY, i, -1);
+         copyHalo(chunk, fromX, fromY, i, SIZE);
+         copyHalo(chunk, fromX, fromY, -1, i);
+         copyHalo(chunk, fromX, fromY, SIZE, i);
+      }
+   }
+
+   private void copyHalo(Chunk chunk, int fromX, int fromY, int x, int y)
+   {
+      int index = (y + 1) * STRIDE + x + 1;
+      x += fromX;
+      y += fromY;
+      if (x < 0 || x >= width || y < 0 || y >= height)
+      {
+         chunk.tileSpeed[index] = 0;
+         chunk.tileCost[index] = Float.POSITIVE_INFINITY;
+         chunk.tileState[index] = 0;
+         chunk.tileTime[index] = 0;
+      }
+      else
+      {
+         chunk.tileSpeed[index] = getSpeed(x, y);
+         chunk.tileCost[index] = 1 / chunk.tileSpeed[index];
+         chunk.tileState[index] = getState(x, y);
+         chunk.tileTime[index] = getTime(x, y);
+      }
+   }
+
+   // true if the chunk has no scent left
+   private boolean idle(Chunk chunk)
+   {
+      for (int y = 0; y < SIZE; y++)
+      {
+         int index = (y + 1) * STRIDE + 1;
+         for (int end = index + SIZE; index < end; index++)
+         {
+            if (chunk.tileState[index] != 0 || chunk.tileTime[index] != 0)
+            {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   // allocate the scent of a chunk and add it to the awake chunks
+   private Chunk wake(int c)
+   {
+      if (chunks[c] == null)
+      {
+         allocate(c);
+      }
+      Chunk chunk = chunks[c];
+      if (chunk.tileState == null)
+      {
+         chunk.tileState = new int[STRIDE * STRIDE];
+         chunk.tileTime = new float[STRIDE * STRIDE];
+         chunk.nextState = new int[STRIDE * STRIDE];
+         chunk.nextTime = new float[STRIDE * STRIDE];
+         if (awakeSize == awake.length)
+         {
+            awake = Arrays.copyOf(awake, 2 * awakeSize);
+         }
+         awake[awakeSize++] = c;
+      }
+      return chunk;
+   }
+
+   // release the scent of a chunk, and the chunk itself if its speeds are all the fill speed
+   private void sleep(int c)
+   {
+      Chunk chunk = chunks[c];
+      chunk.tileState = null;
+      chunk.tileTime = null;
+      chunk.nextState = null;
+      chunk.nextTime = null;
+
+      int columns = columns(c);
+      int rows = rows(c);
+      for (int y = 0; y < rows; y++)
+      {
+         int index = (y + 1) * STRIDE + 1;
+         for (int end = index + columns; index < end; index++)
+         {
+            if (chunk.tileSpeed[index] != fillSpeed[c])
+            {
+               return;
+            }
+         }
+      }
+      chunks[c] = null;
+   }
+
+   // allocate a chunk with all speeds at the fill speed
+   private void allocate(int c)
+   {
+      chunks[c] = new Chunk(fillSpeed[c], columns(c), rows(c));
+   }
+
+   // the columns and rows of a chunk inside the grid
+   private int columns(int c)
+   {
+      return Math.min(SIZE, width - ((c % chunksX) << SHIFT));
+   }
+
+   private int rows(int c)
+   {
+      return Math.min(SIZE, height - ((c / chunksX) << SHIFT));
+   }
+
+   // chunk number of a tile
+   private int chunk(int x, int y)
+   {
+      return (y >> SHIFT) * chunksX + (x >> SHIFT);
+   }
+
+   // index of a tile in the padded arrays of its chunk
+   private int index(int x, int y)
+   {
+      return ((y & MASK) + 1) * STRIDE + (x & MASK) + 1;
+   }
+}
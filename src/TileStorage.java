@@ -0,0 +1,51 @@
+//==================================================================================================
+//
+// DstarApp v.1 - To visualize the workings of the D* path search algorithm.
+//
+// Copyright (C) 2008  Leo Vandriel  (mail@leovandriel.com)
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+//==================================================================================================
+package dstarapp;
+
+/** Tile storage that replaces the tile arrays of a DstarGrid. Coordinates are inside the grid. */
+interface TileStorage
+{
+
+   int getState(int x, int y);
+
+   float getTime(int x, int y);
+
+   float getSpeed(int x, int y);
+
+   // whether all tiles from fromX, fromY until toX, toY have no scent, false when not known cheaply
+   boolean isEmpty(int fromX, int fromY, int toX, int toY);
+
+   void setSpeed(int x, int y, float speed);
+
+   void setSpeed(float speed);
+
+   // the connection changed, pick a random direction for all timed tiles
+   void setConnection(Position[] dir);
+
+   void putTarget(int x, int y, int state);
+
+   // one step of the tiles, using the update kernel of the grid
+   void move();
+
+   // From now on, mark the snapshot blocks, see FieldSnapshot, whose tiles move() and putTarget()
+   // may change, like the sweeps of the tile arrays do.
+   void setChanged(boolean[] changed);
+}